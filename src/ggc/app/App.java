@@ -23,8 +23,15 @@ public class App {
 				}
 			}
 
+			// Metrics are written periodically to the given file, if any.
+			String metricsfile = System.getProperty("metrics");
+			if (metricsfile != null)
+				manager.getMetrics().startDumping(metricsfile, Long.getLong("metricsPeriod", 60));
+
 			Menu menu = new ggc.app.main.Menu(manager);
 			menu.open();
+
+			manager.getMetrics().stopDumping();
 		}
 	}
 
@@ -0,0 +1,21 @@
+package ggc.app.main;
+
+import pt.tecnico.uilib.menus.Command;
+import pt.tecnico.uilib.menus.CommandException;
+import ggc.core.WarehouseManager;
+
+/**
+ * Show the metrics of the warehouse and of its operations.
+ */
+class DoShowMetrics extends Command<WarehouseManager> {
+
+	DoShowMetrics(WarehouseManager receiver) {
+		super(Label.SHOW_METRICS, receiver);
+	}
+
+	@Override
+	public final void execute() throws CommandException {
+		_display.popup(_receiver.getMetrics().getSnapshot());
+	}
+
+}
@@ -35,4 +35,7 @@ interface Label {
 	/** Show balance. */
 	String SHOW_BALANCE = "Ver Saldo Global";
 
+	/** Show metrics. */
+	String SHOW_METRICS = "Ver Métricas";
+
 }
\ No newline at end of file
@@ -15,7 +15,8 @@ class DoShowAllPartners extends Command<WarehouseManager> {
 
 	@Override
 	public void execute() throws CommandException {
-		_display.popup(_receiver.getPartners());
+		_receiver.queryPartners(0, Integer.MAX_VALUE, null).forEachOrdered(_display::addLine);
+		_display.display();
 	}
 
 }
@@ -19,7 +19,9 @@ class DoShowPartnerSales extends Command<WarehouseManager> {
 	@Override
 	public void execute() throws CommandException {
 		try {
-			_display.popup(_receiver.getSalesByPartner(stringField("partnerKey")));
+			_receiver.querySalesByPartner(stringField("partnerKey"), 0, Integer.MAX_VALUE, null)
+				.forEachOrdered(_display::addLine);
+			_display.display();
 		} catch (UnknownPartnerException e) {
 			throw new UnknownPartnerKeyException(e.getKey());
 		}
@@ -15,7 +15,8 @@ class DoShowAllProducts extends Command<WarehouseManager> {
 
 	@Override
 	public final void execute() throws CommandException {
-		_display.popup(_receiver.getProducts());
+		_receiver.queryProducts(0, Integer.MAX_VALUE, null).forEachOrdered(_display::addLine);
+		_display.display();
 	}
 
 }
@@ -1,7 +1,10 @@
 package ggc.app.products;
 
+import java.util.List;
+
 import pt.tecnico.uilib.menus.Command;
 import pt.tecnico.uilib.menus.CommandException;
+import ggc.core.Batch;
 import ggc.core.WarehouseManager;
 
 /**
@@ -9,13 +12,22 @@ import ggc.core.WarehouseManager;
  */
 class DoShowAvailableBatches extends Command<WarehouseManager> {
 
+	/** Number of batches read at a time. */
+	private static final int PAGE_SIZE = 1024;
+
 	DoShowAvailableBatches(WarehouseManager receiver) {
 		super(Label.SHOW_AVAILABLE_BATCHES, receiver);
 	}
 
 	@Override
 	public final void execute() throws CommandException {
-		_display.popup(_receiver.getBatches());
+		List<Batch> page = _receiver.getBatchesAfter(null, PAGE_SIZE);
+
+		while (!page.isEmpty()) {
+			_display.addAll(page);
+			page = _receiver.getBatchesAfter(page.get(page.size() - 1), PAGE_SIZE);
+		}
+		_display.display();
 	}
 
 }
@@ -20,7 +20,9 @@ class DoShowBatchesByPartner extends Command<WarehouseManager> {
 	@Override
 	public final void execute() throws CommandException {
 		try {
-			_display.popup(_receiver.getBatchesByPartner(stringField("partnerKey")));
+			_receiver.queryBatchesByPartner(stringField("partnerKey"), 0, Integer.MAX_VALUE, null)
+				.forEachOrdered(_display::addLine);
+			_display.display();
 		} catch (UnknownPartnerException e) {
 			throw new UnknownPartnerKeyException(e.getKey());
 		}
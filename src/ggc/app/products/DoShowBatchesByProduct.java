@@ -19,7 +19,9 @@ class DoShowBatchesByProduct extends Command<WarehouseManager> {
 	@Override
 	public final void execute() throws CommandException {
 		try {
-			_display.popup(_receiver.getBatchesByProduct(stringField("productId")));
+			_receiver.queryBatchesByProduct(stringField("productId"), 0, Integer.MAX_VALUE, null)
+				.forEachOrdered(_display::addLine);
+			_display.display();
 		} catch (UnknownProductException e) {
 			throw new UnknownProductKeyException(e.getKey());
 		}
@@ -0,0 +1,564 @@
+package ggc.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import ggc.core.WarehouseManager;
+
+/**
+ * Benchmarks of the hot paths of the warehouse core.
+ *
+ * Each benchmark is run for each warehouse size: a fresh warehouse is prepared
+ * for every iteration (not timed), and a number of operations is timed on it.
+ * After the warmup iterations, the time per operation of each measurement
+ * iteration is recorded. Results are written as JSON, in the layout of JMH
+ * results, so that runs can be compared by the usual tools; the score error
+ * is the standard deviation of the measurements. Benchmarks that write a file
+ * also report its size, as a secondary result.
+ *
+ * The throughput benchmarks run a mix of acquisitions, sales and breakdowns from
+ * several client threads at once, on a concurrent manager with each number of
+ * shards, and report the operations per second of all threads together.
+ *
+ * Options are given as system properties:
+ * <ul>
+ * <li>{@code sizes}: comma-separated warehouse sizes, in simple products (default: 1000,10000);</li>
+ * <li>{@code warmup}: warmup iterations (default: 3);</li>
+ * <li>{@code iterations}: measurement iterations (default: 5);</li>
+ * <li>{@code benchmarks}: regular expression of the benchmarks to run (default: all);</li>
+ * <li>{@code output}: file to write the results to (default: standard output).</li>
+ * </ul>
+ */
+public class Benchmarks {
+
+	/** Operations timed per iteration, by the benchmarks of single changes. */
+	private static final int OPERATIONS = 10000;
+
+	/** Operations timed per iteration, by the benchmarks of warehouse-wide queries and time. */
+	private static final int QUERIES = 10;
+
+	/** Simple products given more batches, by the benchmarks of batches per product. */
+	private static final int BATCHED_PRODUCTS = 10;
+
+	/** Batches added to each of those products, by the benchmarks of batches per product. */
+	private static final int[] BATCH_COUNTS = { 1, 10, 100, 1000 };
+
+	/** Numbers of shards of the throughput benchmarks (0, for a concurrent manager that isn't sharded). */
+	private static final int[] SHARD_COUNTS = { 0, 1, 2, 4, 8 };
+
+	/** Numbers of client threads of the throughput benchmarks. */
+	private static final int[] CLIENT_THREADS = { 1, 2, 4, 8 };
+
+	/** Seed of the generated warehouses and operations. */
+	private static final long SEED = 2021;
+
+	/** Sink of the operation results, so that they're not optimized away. */
+	private static volatile int _sink;
+
+	/** Size of the file written by the last iteration, in bytes (negative, if none). */
+	private static volatile long _bytes;
+
+	/**
+	 * Prepares the state of an iteration.
+	 */
+	private interface Benchmark {
+
+		/**
+		 * @param fixture the generated warehouse.
+		 * @return the operations to time.
+		 * @throws Exception if the state can't be prepared.
+		 */
+		Trial prepare(Fixture fixture) throws Exception;
+
+	}
+
+	/**
+	 * The operations of an iteration.
+	 */
+	private interface Trial {
+
+		/**
+		 * @return the number of operations performed.
+		 * @throws Exception if an operation fails.
+		 */
+		int run() throws Exception;
+
+	}
+
+	/** Names of the benchmarks, in running order. */
+	private final List<String> _names = new ArrayList<>();
+
+	/** The benchmarks, in running order. */
+	private final List<Benchmark> _benchmarks = new ArrayList<>();
+
+	/** Client threads of each benchmark, in running order (0, for those timed per operation). */
+	private final List<Integer> _threads = new ArrayList<>();
+
+	/**
+	 * Registers all benchmarks.
+	 */
+	Benchmarks() {
+		add("registerAcquisition", fixture -> {
+			WarehouseManager manager = fixture.newManager();
+			Random random = new Random(SEED);
+			return () -> {
+				for (int i = 0; i < OPERATIONS; i++) {
+					manager.registerAcquisitionTransaction(Fixture.getPartner(random.nextInt(fixture.getPartners())),
+						Fixture.getProduct(random.nextInt(fixture.getSize())), 1 + random.nextInt(10), 1 + random.nextInt(100));
+				}
+				return OPERATIONS;
+			};
+		});
+
+		add("registerCreditSale.simple", fixture -> {
+			WarehouseManager manager = fixture.newManager();
+			Random random = new Random(SEED);
+			return () -> {
+				for (int i = 0; i < OPERATIONS; i++) {
+					manager.registerSaleTransaction(Fixture.getPartner(random.nextInt(fixture.getPartners())), 10,
+						Fixture.getProduct(random.nextInt(fixture.getSize())), 1);
+				}
+				return OPERATIONS;
+			};
+		});
+
+		// Each sale checks the aggregation of the whole chain of components.
+		add("registerCreditSale.aggregate", fixture -> {
+			WarehouseManager manager = fixture.newManager();
+			Random random = new Random(SEED);
+			String product = Fixture.getAggregate(Fixture.DEPTH - 1);
+			return () -> {
+				for (int i = 0; i < OPERATIONS; i++) {
+					manager.registerSaleTransaction(Fixture.getPartner(random.nextInt(fixture.getPartners())), 10, product, 1);
+				}
+				return OPERATIONS;
+			};
+		});
+
+		add("registerBreakdownSale", fixture -> {
+			WarehouseManager manager = fixture.newManager();
+			Random random = new Random(SEED);
+			return () -> {
+				for (int i = 0; i < OPERATIONS; i++) {
+					manager.registerBreakdownTransaction(Fixture.getPartner(random.nextInt(fixture.getPartners())),
+						Fixture.getAggregate(random.nextInt(Fixture.DEPTH)), 1);
+				}
+				return OPERATIONS;
+			};
+		});
+
+		// Products with more batches: reading their stock, selling them, and breaking down
+		// an aggregate made of them (which prices each component by its cheapest batch, if in stock).
+		for (int batches: BATCH_COUNTS) {
+			add("productStock.batches" + batches, fixture -> {
+				WarehouseManager manager = newBatchedManager(fixture, batches);
+				return () -> {
+					for (int i = 0; i < OPERATIONS; i++) {
+						_sink += manager.getProduct(Fixture.getProduct(i % BATCHED_PRODUCTS)).toString().length();
+					}
+					return OPERATIONS;
+				};
+			});
+
+			add("registerCreditSale.batches" + batches, fixture -> {
+				WarehouseManager manager = newBatchedManager(fixture, batches);
+				Random random = new Random(SEED);
+				return () -> {
+					for (int i = 0; i < OPERATIONS; i++) {
+						manager.registerSaleTransaction(Fixture.getPartner(random.nextInt(fixture.getPartners())), 10,
+							Fixture.getProduct(random.nextInt(BATCHED_PRODUCTS)), 1);
+					}
+					return OPERATIONS;
+				};
+			});
+
+			add("registerBreakdownSale.batches" + batches, fixture -> {
+				WarehouseManager manager = newBatchedManager(fixture, batches);
+				Random random = new Random(SEED);
+				return () -> {
+					for (int i = 0; i < OPERATIONS; i++) {
+						manager.registerBreakdownTransaction(Fixture.getPartner(random.nextInt(fixture.getPartners())),
+							Fixture.getAggregate(0), 1);
+					}
+					return OPERATIONS;
+				};
+			});
+		}
+
+		// Each client thread runs its own operations, on products of every shard.
+		for (int shards: SHARD_COUNTS) {
+			for (int threads: CLIENT_THREADS) {
+				add("throughput.shards" + shards + ".threads" + threads, threads, fixture -> {
+					WarehouseManager manager = fixture.newManager();
+					manager.setConcurrent(true);
+					manager.setShards(shards);
+					ExecutorService executor = Executors.newFixedThreadPool(threads);
+					return () -> {
+						try {
+							List<Future<?>> clients = new ArrayList<>();
+							for (int t = 0; t < threads; t++) {
+								Random random = new Random(SEED + t);
+								clients.add(executor.submit(() -> {
+									change(manager, fixture, random);
+									return null;
+								}));
+							}
+							for (Future<?> client: clients) {
+								client.get();
+							}
+						} finally {
+							executor.shutdown();
+							manager.setShards(0);
+						}
+						return threads * OPERATIONS;
+					};
+				});
+			}
+		}
+
+		// One unpaid credit sale per simple product, with deadlines spread over the next days.
+		add("forwardDate", fixture -> {
+			WarehouseManager manager = fixture.newManager();
+			for (int i = 0; i < fixture.getSize(); i++) {
+				manager.registerSaleTransaction(Fixture.getPartner(i % fixture.getPartners()), i % (2 * QUERIES),
+					Fixture.getProduct(i), 1);
+			}
+			return () -> {
+				for (int i = 0; i < QUERIES; i++) {
+					manager.forwardDate(1);
+				}
+				_sink += (int) manager.getAccountingBalance();
+				return QUERIES;
+			};
+		});
+
+		add("getBatches", fixture -> {
+			WarehouseManager manager = fixture.newManager();
+			return () -> {
+				for (int i = 0; i < QUERIES; i++) {
+					_sink += manager.getBatches().size();
+				}
+				return QUERIES;
+			};
+		});
+
+		add("getBatchesUnderGivenPrice", fixture -> {
+			WarehouseManager manager = fixture.newManager();
+			return () -> {
+				for (int i = 0; i < QUERIES; i++) {
+					_sink += manager.getBatchesUnderGivenPrice(50).size();
+				}
+				return QUERIES;
+			};
+		});
+
+		add("importFile", fixture -> () -> {
+			_sink += fixture.newManager().getProducts().size();
+			return 1;
+		});
+
+		// Saving and loading report the size of the file, as a secondary result.
+		add("save", fixture -> {
+			WarehouseManager manager = fixture.newManager();
+			Path file = newSnapshotFile();
+			return () -> {
+				manager.saveAs(file.toString());
+				_bytes = Files.size(file);
+				return 1;
+			};
+		});
+
+		add("load", fixture -> {
+			Path file = newSnapshotFile();
+			fixture.newManager().saveAs(file.toString());
+			return () -> {
+				WarehouseManager manager = new WarehouseManager();
+				manager.load(file.toString());
+				_sink += manager.getProducts().size();
+				_bytes = Files.size(file);
+				return 1;
+			};
+		});
+
+		// Files saved with Java serialization, as before snapshots were introduced.
+		add("saveSerialized", fixture -> {
+			WarehouseManager manager = fixture.newManager();
+			Path file = newSnapshotFile();
+			return () -> {
+				manager.saveSerialized(file.toString());
+				_bytes = Files.size(file);
+				return 1;
+			};
+		});
+
+		// Loading converts the file into a snapshot, so each iteration loads a fresh copy.
+		add("loadSerialized", fixture -> {
+			Path serialized = newSnapshotFile();
+			Path file = newSnapshotFile();
+			fixture.newManager().saveSerialized(serialized.toString());
+			Files.copy(serialized, file, StandardCopyOption.REPLACE_EXISTING);
+			return () -> {
+				WarehouseManager manager = new WarehouseManager();
+				_bytes = Files.size(file);
+				manager.load(file.toString());
+				_sink += manager.getProducts().size();
+				return 1;
+			};
+		});
+	}
+
+	/**
+	 * @param name      the benchmark name.
+	 * @param benchmark the benchmark, timed per operation.
+	 */
+	private void add(String name, Benchmark benchmark) {
+		add(name, 0, benchmark);
+	}
+
+	/**
+	 * @param name      the benchmark name.
+	 * @param threads   the client threads of a throughput benchmark (0, for one timed per operation).
+	 * @param benchmark the benchmark.
+	 */
+	private void add(String name, int threads, Benchmark benchmark) {
+		_names.add(name);
+		_threads.add(threads);
+		_benchmarks.add(benchmark);
+	}
+
+	/**
+	 * Runs the operations of a client thread of the throughput benchmarks:
+	 * acquisitions and sales of simple products, and breakdowns of aggregate products.
+	 *
+	 * @param manager the warehouse.
+	 * @param fixture the generated warehouse.
+	 * @param random  the source of the operations.
+	 * @throws Exception if an operation fails.
+	 */
+	private static void change(WarehouseManager manager, Fixture fixture, Random random) throws Exception {
+		for (int i = 0; i < OPERATIONS; i++) {
+			String partner = Fixture.getPartner(random.nextInt(fixture.getPartners()));
+			int operation = random.nextInt(10);
+
+			if (operation < 4)
+				manager.registerAcquisitionTransaction(partner, Fixture.getProduct(random.nextInt(fixture.getSize())),
+					1 + random.nextInt(10), 1 + random.nextInt(100));
+			else if (operation < 9)
+				manager.registerSaleTransaction(partner, 10, Fixture.getProduct(random.nextInt(fixture.getSize())), 1);
+			else
+				manager.registerBreakdownTransaction(partner, Fixture.getAggregate(random.nextInt(Fixture.DEPTH)), 1);
+		}
+	}
+
+	/**
+	 * Creates the generated warehouse, with more batches of the first simple products,
+	 * each from a different partner or at a different price. The first aggregate
+	 * product is made of two of them.
+	 *
+	 * @param fixture the generated warehouse.
+	 * @param batches the number of batches added to each product.
+	 * @return the warehouse.
+	 * @throws Exception if the warehouse can't be created.
+	 */
+	private static WarehouseManager newBatchedManager(Fixture fixture, int batches) throws Exception {
+		WarehouseManager manager = fixture.newManager();
+		for (int i = 0; i < BATCHED_PRODUCTS; i++) {
+			for (int j = 0; j < batches; j++) {
+				manager.registerAcquisitionTransaction(Fixture.getPartner(j % fixture.getPartners()), Fixture.getProduct(i),
+					Fixture.STOCK, 100 + j);
+			}
+		}
+		return manager;
+	}
+
+	/**
+	 * @return a new temporary file, for a snapshot.
+	 * @throws IOException if the file can't be created.
+	 */
+	private static Path newSnapshotFile() throws IOException {
+		Path file = Files.createTempFile("ggc-bench-", ".dat");
+		file.toFile().deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Runs the selected benchmarks, for all sizes, and writes the results.
+	 *
+	 * @param out        where to write the results.
+	 * @param sizes      the warehouse sizes.
+	 * @param warmup     the number of warmup iterations.
+	 * @param iterations the number of measurement iterations.
+	 * @param selection  the benchmarks to run.
+	 * @throws Exception if a benchmark fails.
+	 */
+	void run(PrintStream out, int[] sizes, int warmup, int iterations, Pattern selection) throws Exception {
+		boolean first = true;
+
+		out.println("[");
+		for (int size: sizes) {
+			Fixture fixture = new Fixture(size, SEED);
+
+			for (int b = 0; b < _benchmarks.size(); b++) {
+				String name = _names.get(b);
+				if (!selection.matcher(name).find())
+					continue;
+
+				int threads = _threads.get(b);
+				double[] scores = new double[iterations];
+				long bytes = -1;
+				for (int i = -warmup; i < iterations; i++) {
+					Trial trial = _benchmarks.get(b).prepare(fixture);
+					_bytes = -1;
+
+					long start = System.nanoTime();
+					int operations = trial.run();
+					long time = System.nanoTime() - start;
+
+					if (i >= 0)
+						scores[i] = (threads > 0) ? operations * 1e9 / time : (double) time / operations;
+					bytes = _bytes;
+				}
+
+				if (!first)
+					out.println(",");
+				first = false;
+				write(out, name, size, threads, warmup, scores, bytes);
+
+				if (threads > 0)
+					System.err.printf(Locale.ROOT, "%-34s %8d %14.1f ops/s%n", name, size, mean(scores));
+				else if (bytes >= 0)
+					System.err.printf(Locale.ROOT, "%-34s %8d %14.1f ns/op %12d bytes%n", name, size, mean(scores), bytes);
+				else
+					System.err.printf(Locale.ROOT, "%-34s %8d %14.1f ns/op%n", name, size, mean(scores));
+			}
+
+			fixture.delete();
+		}
+		out.println();
+		out.println("]");
+	}
+
+	/**
+	 * Writes the result of a benchmark, in the layout of JMH results.
+	 *
+	 * @param out     where to write the result.
+	 * @param name    the benchmark name.
+	 * @param size    the warehouse size.
+	 * @param threads the client threads of a throughput benchmark (0, for one timed per operation).
+	 * @param warmup  the number of warmup iterations.
+	 * @param scores  the operations per second, or the time per operation, of each measurement iteration.
+	 * @param bytes   the size of the file written by the benchmark (negative, if none).
+	 */
+	private static void write(PrintStream out, String name, int size, int threads, int warmup, double[] scores, long bytes) {
+		StringBuilder raw = new StringBuilder();
+		for (double score: scores) {
+			if (raw.length() > 0)
+				raw.append(", ");
+			raw.append(format(score));
+		}
+
+		out.println("    {");
+		out.println("        \"benchmark\" : \"ggc.bench.Benchmarks." + name + "\",");
+		out.println("        \"mode\" : \"" + ((threads > 0) ? "thrpt" : "avgt") + "\",");
+		out.println("        \"threads\" : " + Math.max(threads, 1) + ",");
+		out.println("        \"warmupIterations\" : " + warmup + ",");
+		out.println("        \"measurementIterations\" : " + scores.length + ",");
+		out.println("        \"params\" : { \"size\" : \"" + size + "\" },");
+		out.println("        \"primaryMetric\" : {");
+		out.println("            \"score\" : " + format(mean(scores)) + ",");
+		out.println("            \"scoreError\" : " + format(deviation(scores)) + ",");
+		out.println("            \"scoreUnit\" : \"" + ((threads > 0) ? "ops/s" : "ns/op") + "\",");
+		out.println("            \"rawData\" : [ [ " + raw + " ] ]");
+		if (bytes < 0) {
+			out.println("        }");
+		} else {
+			out.println("        },");
+			out.println("        \"secondaryMetrics\" : {");
+			out.println("            \"size\" : { \"score\" : " + bytes + ", \"scoreError\" : 0, \"scoreUnit\" : \"bytes\" }");
+			out.println("        }");
+		}
+		out.print("    }");
+	}
+
+	/**
+	 * @param value a number.
+	 * @return the number, as a JSON value.
+	 */
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	/**
+	 * @param values the measurements.
+	 * @return their mean.
+	 */
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double value: values) {
+			sum += value;
+		}
+		return (values.length > 0) ? sum / values.length : 0;
+	}
+
+	/**
+	 * @param values the measurements.
+	 * @return their sample standard deviation.
+	 */
+	private static double deviation(double[] values) {
+		if (values.length < 2)
+			return 0;
+
+		double mean = mean(values);
+		double sum = 0;
+		for (double value: values) {
+			sum += (value - mean) * (value - mean);
+		}
+		return Math.sqrt(sum / (values.length - 1));
+	}
+
+	/**
+	 * @param name         the property name.
+	 * @param defaultValue the value if the property isn't set.
+	 * @return the value of the property, as a number.
+	 */
+	private static int getInteger(String name, int defaultValue) {
+		String value = System.getProperty(name);
+		return (value != null) ? Integer.parseInt(value.trim()) : defaultValue;
+	}
+
+	/** @param args command line arguments (unused: options are system properties). */
+	public static void main(String[] args) throws Exception {
+		String[] sizeList = System.getProperty("sizes", "1000,10000").split(",");
+		int[] sizes = new int[sizeList.length];
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = Integer.parseInt(sizeList[i].trim());
+			if (sizes[i] <= Fixture.DEPTH)
+				throw new IllegalArgumentException("warehouse size must be greater than " + Fixture.DEPTH + ": " + sizes[i]);
+		}
+
+		int warmup = getInteger("warmup", 3);
+		int iterations = getInteger("iterations", 5);
+		Pattern selection = Pattern.compile(System.getProperty("benchmarks", ""));
+		String output = System.getProperty("output");
+
+		if (output == null) {
+			new Benchmarks().run(System.out, sizes, warmup, iterations, selection);
+		} else {
+			try (PrintStream out = new PrintStream(output, "UTF-8")) {
+				new Benchmarks().run(out, sizes, warmup, iterations, selection);
+			}
+		}
+	}
+
+}
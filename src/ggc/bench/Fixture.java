@@ -0,0 +1,140 @@
+package ggc.bench;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import ggc.core.WarehouseManager;
+import ggc.core.exception.ImportFileException;
+
+/**
+ * A generated warehouse of a given size, used by the benchmarks.
+ *
+ * The warehouse has {@code size} simple products, one partner per hundred
+ * products (at least ten), a few batches of each simple product, and a chain
+ * of aggregate products, each made of the previous one and a simple product.
+ * The warehouse is written as an import file, so that it can be rebuilt
+ * (or imported, as a benchmark) as many times as needed.
+ */
+class Fixture {
+
+	/** Number of aggregate products in the chain. */
+	static final int DEPTH = 8;
+
+	/** Batches of each simple product. */
+	private static final int BATCHES = 3;
+
+	/** Units in each batch: enough for every benchmark iteration. */
+	static final int STOCK = 1000000;
+
+	/** Number of simple products. */
+	private final int _size;
+
+	/** Number of partners. */
+	private final int _partners;
+
+	/** The import file. */
+	private final Path _file;
+
+	/**
+	 * Generates the import file of a warehouse.
+	 *
+	 * @param size the number of simple products.
+	 * @param seed the seed of the prices.
+	 * @throws IOException if the file can't be written.
+	 */
+	Fixture(int size, long seed) throws IOException {
+		_size = size;
+		_partners = Math.max(10, size / 100);
+		_file = Files.createTempFile("ggc-bench-" + size + "-", ".txt");
+		_file.toFile().deleteOnExit();
+
+		Random random = new Random(seed);
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(_file))) {
+			for (int i = 0; i < _partners; i++) {
+				out.println("PARTNER|" + getPartner(i) + "|Partner " + i + "|Address " + i);
+			}
+
+			for (int i = 0; i < _size; i++) {
+				for (int j = 0; j < BATCHES; j++) {
+					out.println("BATCH_S|" + getProduct(i) + "|" + getPartner(random.nextInt(_partners)) + "|" +
+						(1 + random.nextInt(100)) + "|" + STOCK);
+				}
+			}
+
+			// Each aggregate is made of the previous one (or a simple product) and a simple product.
+			for (int i = 0; i < DEPTH; i++) {
+				String previous = (i == 0) ? getProduct(0) : getAggregate(i - 1);
+				out.println("BATCH_M|" + getAggregate(i) + "|" + getPartner(0) + "|" + (100 * (i + 1)) + "|" + STOCK +
+					"|0.1|" + previous + ":1#" + getProduct(i + 1) + ":2");
+			}
+		}
+	}
+
+	/**
+	 * @return the number of simple products.
+	 */
+	int getSize() {
+		return _size;
+	}
+
+	/**
+	 * @return the number of partners.
+	 */
+	int getPartners() {
+		return _partners;
+	}
+
+	/**
+	 * @return the import file.
+	 */
+	Path getFile() {
+		return _file;
+	}
+
+	/**
+	 * @param index the partner index.
+	 * @return the key of the partner.
+	 */
+	static String getPartner(int index) {
+		return "P" + index;
+	}
+
+	/**
+	 * @param index the simple product index.
+	 * @return the key of the simple product.
+	 */
+	static String getProduct(int index) {
+		return "S" + index;
+	}
+
+	/**
+	 * @param level the aggregate level (0, for the one made of simple products only).
+	 * @return the key of the aggregate product.
+	 */
+	static String getAggregate(int level) {
+		return "A" + level;
+	}
+
+	/**
+	 * @return a new warehouse manager, with the generated warehouse.
+	 * @throws ImportFileException if the warehouse can't be imported.
+	 */
+	WarehouseManager newManager() throws ImportFileException {
+		WarehouseManager manager = new WarehouseManager();
+		manager.importFile(_file.toString());
+		return manager;
+	}
+
+	/**
+	 * Deletes the import file.
+	 *
+	 * @throws IOException if the file can't be deleted.
+	 */
+	void delete() throws IOException {
+		Files.deleteIfExists(_file);
+	}
+
+}
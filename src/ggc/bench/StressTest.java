@@ -0,0 +1,593 @@
+package ggc.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import ggc.core.Batch;
+import ggc.core.Partner;
+import ggc.core.Product;
+import ggc.core.WarehouseManager;
+import ggc.core.exception.NoProductStockException;
+import ggc.core.exception.UnknownTransactionException;
+
+/**
+ * Stress test of the concurrent and sharded modes of the warehouse core.
+ *
+ * A journaled warehouse is changed by several threads at once, with random
+ * acquisitions, sales, breakdowns, payments, notification toggles and date
+ * changes, all on a small set of partners and products, so that the threads
+ * contend on them. While they run, other threads check the warehouse:
+ * <ul>
+ * <li>batch listings, whole, under a price or a page at a time, are sorted,
+ * and hold no batch twice nor any batch over the price;</li>
+ * <li>the accounting balance agrees with the unpaid sales, and the units in
+ * stock agree with the batches of every product, whenever the whole warehouse
+ * is locked for the check.</li>
+ * </ul>
+ * Listings and notification readings must not wait for changes in progress:
+ * an acquisition notifying a partner, while holding its locks, has another
+ * thread run them, and they must end before the acquisition does.
+ * Once all threads are done, the warehouse is checked:
+ * <ul>
+ * <li>every product has as many units as its batches, and no batch is empty;</li>
+ * <li>the units of the warehouse are the units of its products and of its batches;</li>
+ * <li>every registered transaction has its own key;</li>
+ * <li>balances, batches, partners and transactions are those obtained by
+ * loading the warehouse, which replays the journal one change at a time;</li>
+ * <li>they are also those obtained by saving the warehouse with Java serialization,
+ * as before snapshots were introduced, converting it by loading it, and saving and
+ * loading the converted warehouse as a snapshot.</li>
+ * </ul>
+ * The test is run without shards, and then with shards.
+ *
+ * Options are given as system properties:
+ * <ul>
+ * <li>{@code threads}: number of threads (default: 4);</li>
+ * <li>{@code operations}: operations per thread (default: 5000);</li>
+ * <li>{@code shards}: number of shards of the second run (default: 4);</li>
+ * <li>{@code seed}: seed of the operations (default: 2021).</li>
+ * </ul>
+ * A failed check ends the test with an exception.
+ */
+public class StressTest {
+
+	/** Number of partners. */
+	private static final int PARTNERS = 8;
+
+	/** Number of simple products. */
+	private static final int PRODUCTS = 30;
+
+	/** Number of aggregate products made of simple products. */
+	private static final int AGGREGATES = 10;
+
+	/** Number of aggregate products made of other aggregate products. */
+	private static final int COMPOSITES = 3;
+
+	/** Relative tolerance of balance comparisons (sums may be done in a different order). */
+	private static final double TOLERANCE = 1e-9;
+
+	/** Number of threads reading the warehouse while it changes. */
+	private static final int READERS = 2;
+
+	/** Number of batches of each page read. */
+	private static final int PAGE = 10;
+
+	/** Milliseconds between checks of the whole warehouse. */
+	private static final long CHECK_PERIOD = 5;
+
+	/** Seconds a listing may take while a change holds its locks. */
+	private static final long PROBE_TIMEOUT = 10;
+
+	/** Number of threads. */
+	private final int _threads;
+
+	/** Operations per thread. */
+	private final int _operations;
+
+	/** Seed of the operations. */
+	private final long _seed;
+
+	/** Registered transactions. */
+	private final AtomicInteger _transactions = new AtomicInteger();
+
+	/** Operations refused for lack of stock. */
+	private final AtomicInteger _refused = new AtomicInteger();
+
+	/**
+	 * @param threads    the number of threads.
+	 * @param operations the number of operations per thread.
+	 * @param seed       the seed of the operations.
+	 */
+	private StressTest(int threads, int operations, long seed) {
+		_threads = threads;
+		_operations = operations;
+		_seed = seed;
+	}
+
+	/**
+	 * Fails the test if a condition doesn't hold.
+	 *
+	 * @param condition the condition.
+	 * @param message   the failure description.
+	 */
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new IllegalStateException("stress test failed: " + message);
+	}
+
+	/**
+	 * @param a the first value.
+	 * @param b the second value.
+	 * @return true, if the values are equal, up to rounding errors.
+	 */
+	private static boolean same(double a, double b) {
+		return Math.abs(a - b) <= TOLERANCE * Math.max(1, Math.max(Math.abs(a), Math.abs(b)));
+	}
+
+	/**
+	 * Compares two partner descriptions. Their values are rounded sums, which may be
+	 * rounded the other way when summed in a different order.
+	 *
+	 * @param a the first description.
+	 * @param b the second description.
+	 * @return true, if the descriptions are equal, up to rounding errors.
+	 */
+	private static boolean samePartner(String a, String b) {
+		String[] fields = a.split("\\|");
+		String[] other = b.split("\\|");
+		if (fields.length != other.length)
+			return false;
+		for (int i = 0; i < fields.length; i++) {
+			boolean same = (i < 4) ? fields[i].equals(other[i]) :
+				Math.abs(Long.parseLong(fields[i]) - Long.parseLong(other[i])) <= 1;
+			if (!same)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param manager the warehouse.
+	 * @return the descriptions of the products.
+	 */
+	private static List<String> describeProducts(WarehouseManager manager) {
+		List<String> products = new ArrayList<>();
+		for (Product product : manager.getProducts())
+			products.add(product.toString());
+		return products;
+	}
+
+	/**
+	 * @param manager the warehouse.
+	 * @return the descriptions of the batches.
+	 */
+	private static List<String> describeBatches(WarehouseManager manager) {
+		List<String> batches = new ArrayList<>();
+		for (Batch batch : manager.getBatches())
+			batches.add(batch.toString());
+		return batches;
+	}
+
+	/**
+	 * @param manager the warehouse.
+	 * @return the descriptions of the partners.
+	 */
+	private static List<String> describePartners(WarehouseManager manager) {
+		List<String> partners = new ArrayList<>();
+		for (Partner partner : manager.getPartners())
+			partners.add(partner.toString());
+		return partners;
+	}
+
+	/**
+	 * Lists the transactions with keys up to the number of attempts to register one.
+	 * A breakdown refused for lack of stock still takes a key, so keys may be missing.
+	 *
+	 * @param manager the warehouse.
+	 * @return the descriptions of the transactions, by key.
+	 */
+	private List<String> describeTransactions(WarehouseManager manager) {
+		List<String> transactions = new ArrayList<>();
+		for (int key = 0; key < _transactions.get() + _refused.get(); key++) {
+			try {
+				transactions.add(manager.getTransaction(key).toString());
+			} catch (UnknownTransactionException e) {
+				// Taken by a refused breakdown.
+			}
+		}
+		return transactions;
+	}
+
+	/**
+	 * Registers the partners and products.
+	 *
+	 * @param manager the warehouse.
+	 * @return the keys of the products.
+	 * @throws Exception if the warehouse can't be populated.
+	 */
+	private static List<String> populate(WarehouseManager manager) throws Exception {
+		List<String> products = new ArrayList<>();
+		for (int i = 0; i < PARTNERS; i++)
+			manager.registerPartner("P" + i, "Partner " + i, "Address " + i);
+		for (int i = 0; i < PRODUCTS; i++) {
+			manager.registerSimpleProduct("S" + i);
+			products.add("S" + i);
+		}
+		for (int i = 0; i < AGGREGATES; i++) {
+			manager.registerAggregateProduct("A" + i, 0.1, List.of("S" + (3 * i), "S" + (3 * i + 1)), List.of(1, 2));
+			products.add("A" + i);
+		}
+		for (int i = 0; i < COMPOSITES; i++) {
+			manager.registerAggregateProduct("C" + i, 0.2, List.of("A" + i, "S" + (PRODUCTS - 1 - i)), List.of(2, 1));
+			products.add("C" + i);
+		}
+		return products;
+	}
+
+	/**
+	 * Runs the operations of a thread.
+	 *
+	 * @param manager  the warehouse.
+	 * @param products the keys of the products.
+	 * @param random   the source of the operations.
+	 * @throws Exception if an operation fails unexpectedly.
+	 */
+	private void change(WarehouseManager manager, List<String> products, Random random) throws Exception {
+		for (int i = 0; i < _operations; i++) {
+			String partner = "P" + random.nextInt(PARTNERS);
+			String product = products.get(random.nextInt(products.size()));
+			int operation = random.nextInt(100);
+			try {
+				if (operation < 40) {
+					manager.registerAcquisitionTransaction(partner, product, 1 + random.nextInt(5), 1 + random.nextInt(100));
+					_transactions.incrementAndGet();
+				} else if (operation < 70) {
+					manager.registerSaleTransaction(partner, manager.getDate() + random.nextInt(50), product, 1 + random.nextInt(3));
+					_transactions.incrementAndGet();
+				} else if (operation < 80) {
+					// Breaking down a simple product does nothing.
+					manager.registerBreakdownTransaction(partner, product, 1);
+					if (!product.startsWith("S"))
+						_transactions.incrementAndGet();
+				} else if (operation < 90) {
+					try {
+						manager.receivePayment(random.nextInt(Math.max(1, _transactions.get())));
+					} catch (UnknownTransactionException e) {
+						// The key may belong to a transaction that isn't registered yet.
+					}
+				} else if (operation < 99) {
+					manager.toggleNotifications(partner, product);
+				} else {
+					manager.forwardDate(1);
+				}
+			} catch (NoProductStockException e) {
+				_refused.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Checks that batches are listed in their natural order, each once.
+	 *
+	 * @param batches the batches listed.
+	 * @param after   the batch before the listing (null, if none).
+	 * @param listing the listing's description.
+	 */
+	private static void checkOrder(Collection<Batch> batches, Batch after, String listing) {
+		Batch previous = after;
+		for (Batch batch : batches) {
+			check(previous == null || previous.compareTo(batch) < 0, listing + " lists " + batch + " after " + previous);
+			previous = batch;
+		}
+	}
+
+	/**
+	 * Reads the warehouse while it changes, checking each listing.
+	 *
+	 * @param manager  the warehouse.
+	 * @param random   the source of the readings.
+	 * @param changing whether the warehouse is still changing.
+	 * @throws Exception if a reading fails unexpectedly.
+	 */
+	private static void read(WarehouseManager manager, Random random, AtomicBoolean changing) throws Exception {
+		while (changing.get()) {
+			checkOrder(manager.getBatches(), null, "batch listing");
+
+			int price = 1 + random.nextInt(100);
+			Collection<Batch> cheaper = manager.getBatchesUnderGivenPrice(price);
+			checkOrder(cheaper, null, "listing under " + price);
+			for (Batch batch : cheaper) {
+				String[] fields = batch.toString().split("\\|");
+				check(Long.parseLong(fields[2]) <= price, "listing under " + price + " lists " + batch);
+			}
+
+			Batch after = null;
+			for (int page = 0; page < 3; page++) {
+				List<Batch> batches = manager.getBatchesAfter(after, PAGE);
+				check(batches.size() <= PAGE, "page of " + batches.size() + " batches");
+				checkOrder(batches, after, "page");
+				if (batches.isEmpty())
+					break;
+				after = batches.get(batches.size() - 1);
+			}
+
+			String product = "S" + random.nextInt(PRODUCTS);
+			List<Batch> held = manager.queryBatchesByProduct(product, 0, PAGE, null).collect(Collectors.toList());
+			check(held.size() <= PAGE, "query of " + held.size() + " batches");
+			checkOrder(held, null, "query of " + product);
+			for (Batch batch : held) {
+				check(batch.toString().startsWith(product + "|"), "query of " + product + " lists " + batch);
+			}
+			manager.querySalesByPartner("P" + random.nextInt(PARTNERS), random.nextInt(PAGE), PAGE, null).count();
+
+			manager.getPartnerNotifications("P" + random.nextInt(PARTNERS));
+		}
+	}
+
+	/**
+	 * Checks the whole warehouse periodically while it changes.
+	 *
+	 * @param manager  the warehouse.
+	 * @param changing whether the warehouse is still changing.
+	 * @throws Exception if the check is interrupted.
+	 */
+	private static void checkWhileChanging(WarehouseManager manager, AtomicBoolean changing) throws Exception {
+		while (changing.get()) {
+			check(manager.isConsistent(), "running totals disagree with the warehouse while it changes");
+			Thread.sleep(CHECK_PERIOD);
+		}
+	}
+
+	/**
+	 * Checks that listings and notification readings don't wait for a change in progress.
+	 * A partner's delivery method, called by an acquisition while it holds its locks,
+	 * has another thread run them, and waits for it.
+	 *
+	 * @param manager the warehouse.
+	 * @throws Exception if the readings fail unexpectedly.
+	 */
+	private void checkLockScope(WarehouseManager manager) throws Exception {
+		ExecutorService reader = Executors.newSingleThreadExecutor();
+		AtomicInteger probes = new AtomicInteger();
+		AtomicBoolean blocked = new AtomicBoolean();
+
+		try {
+			manager.setNotificationDeliveryMethod("P0", notification -> {
+				probes.incrementAndGet();
+				Future<?> readings = reader.submit(() -> {
+					manager.getBatches();
+					manager.getBatchesUnderGivenPrice(50);
+					manager.getBatchesAfter(null, PAGE);
+					manager.getPartnerNotifications("P1");
+					return null;
+				});
+				try {
+					readings.get(PROBE_TIMEOUT, TimeUnit.SECONDS);
+				} catch (TimeoutException e) {
+					blocked.set(true);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+
+			// A new product notifies every partner of a bargain.
+			manager.registerSimpleProduct("PROBE");
+			manager.registerAcquisitionTransaction("P1", "PROBE", 1, 10);
+			manager.registerAcquisitionTransaction("P1", "PROBE", 1, 5);
+			_transactions.addAndGet(2);
+
+			check(probes.get() == 1, probes.get() + " notifications delivered to the probe");
+			check(!blocked.get(), "listings wait for an acquisition in progress");
+		} finally {
+			manager.setNotificationDeliveryMethod("P0", notification -> { });
+			reader.shutdown();
+		}
+	}
+
+	/**
+	 * Checks the stock of the warehouse.
+	 *
+	 * @param manager the warehouse.
+	 * @throws Exception if the products can't be inspected.
+	 */
+	private static void checkStock(WarehouseManager manager) throws Exception {
+		long productUnits = 0;
+		for (Product product : manager.getProducts()) {
+			String[] fields = product.toString().split("\\|");
+			long units = 0;
+			for (Batch batch : manager.getBatchesByProduct(fields[0])) {
+				String[] batchFields = batch.toString().split("\\|");
+				int stock = Integer.parseInt(batchFields[batchFields.length - 1]);
+				check(stock > 0, "empty batch " + batch);
+				units += stock;
+			}
+			check(units == Long.parseLong(fields[2]), "product " + product + " has " + units + " units in batches");
+			productUnits += units;
+		}
+
+		long batchUnits = 0;
+		for (Batch batch : manager.getBatches()) {
+			String[] fields = batch.toString().split("\\|");
+			batchUnits += Integer.parseInt(fields[fields.length - 1]);
+		}
+
+		check(productUnits == manager.getStockUnits(), "products have " + productUnits + " units, warehouse has " +
+			manager.getStockUnits());
+		check(batchUnits == manager.getStockUnits(), "batches have " + batchUnits + " units, warehouse has " +
+			manager.getStockUnits());
+	}
+
+	/**
+	 * Checks that two warehouses have the same state.
+	 *
+	 * @param manager the warehouse.
+	 * @param other   the warehouse it was saved to and loaded from.
+	 * @param how     how the other warehouse was obtained.
+	 * @throws Exception if the warehouses can't be inspected.
+	 */
+	private void checkSame(WarehouseManager manager, WarehouseManager other, String how) throws Exception {
+		check(same(manager.getAvailableBalance(), other.getAvailableBalance()), "available balance " +
+			manager.getAvailableBalance() + ", " + how + " " + other.getAvailableBalance());
+		check(same(manager.getAccountingBalance(), other.getAccountingBalance()), "accounting balance " +
+			manager.getAccountingBalance() + ", " + how + " " + other.getAccountingBalance());
+		check(same(manager.getStockValue(), other.getStockValue()), "stock value " + manager.getStockValue() +
+			", " + how + " " + other.getStockValue());
+		check(manager.getStockUnits() == other.getStockUnits(), "stock units " + manager.getStockUnits() +
+			", " + how + " " + other.getStockUnits());
+		check(manager.getDate() == other.getDate(), "date " + manager.getDate() + ", " + how + " " + other.getDate());
+		check(describeProducts(manager).equals(describeProducts(other)), how + " products differ");
+		check(describeBatches(manager).equals(describeBatches(other)), how + " batches differ");
+		List<String> partners = describePartners(manager);
+		List<String> otherPartners = describePartners(other);
+		check(partners.size() == otherPartners.size(), how + " partners differ");
+		for (int i = 0; i < partners.size(); i++)
+			check(samePartner(partners.get(i), otherPartners.get(i)), "partner " + partners.get(i) + ", " + how + " " +
+				otherPartners.get(i));
+		check(describeTransactions(manager).equals(describeTransactions(other)), how + " transactions differ");
+	}
+
+	/**
+	 * Checks the warehouse against the one loaded from its file and journal.
+	 *
+	 * @param manager  the warehouse.
+	 * @param filename the associated file.
+	 * @throws Exception if the warehouse can't be loaded.
+	 */
+	private void checkReplay(WarehouseManager manager, String filename) throws Exception {
+		WarehouseManager replayed = new WarehouseManager();
+		replayed.load(filename);
+		checkSame(manager, replayed, "replayed");
+	}
+
+	/**
+	 * Checks the conversion of files saved with Java serialization: the warehouse is
+	 * saved as such a file, which is converted into a snapshot when loaded, and the
+	 * warehouse loaded is saved as a snapshot again and reloaded.
+	 *
+	 * @param manager the warehouse.
+	 * @throws Exception if the warehouse can't be saved or loaded.
+	 */
+	private void checkConversion(WarehouseManager manager) throws Exception {
+		File serialized = Files.createTempFile("ggc-stress-", ".ser").toFile();
+		File snapshot = Files.createTempFile("ggc-stress-", ".dat").toFile();
+		serialized.deleteOnExit();
+		snapshot.deleteOnExit();
+
+		manager.saveSerialized(serialized.getPath());
+		WarehouseManager converted = new WarehouseManager();
+		converted.load(serialized.getPath());
+		checkSame(manager, converted, "converted");
+
+		converted.saveAs(snapshot.getPath());
+		WarehouseManager reloaded = new WarehouseManager();
+		reloaded.load(snapshot.getPath());
+		checkSame(manager, reloaded, "reloaded");
+
+		serialized.delete();
+		snapshot.delete();
+	}
+
+	/**
+	 * Runs the test once.
+	 *
+	 * @param shards the number of shards (0, for none).
+	 * @throws Exception if the test fails.
+	 */
+	private void run(int shards) throws Exception {
+		File file = Files.createTempFile("ggc-stress-", ".dat").toFile();
+		File journal = new File(file.getPath() + ".journal");
+		file.deleteOnExit();
+		journal.deleteOnExit();
+
+		WarehouseManager manager = new WarehouseManager();
+		manager.setConcurrent(true);
+		manager.setShards(shards);
+		manager.setFilename(file.getPath());
+		manager.enableJournal();
+		List<String> products = populate(manager);
+
+		ExecutorService executor = Executors.newFixedThreadPool(_threads + READERS + 1);
+		AtomicBoolean changing = new AtomicBoolean(true);
+		try {
+			List<Future<?>> writers = new ArrayList<>();
+			for (int t = 0; t < _threads; t++) {
+				Random random = new Random(_seed + t);
+				writers.add(executor.submit(() -> {
+					change(manager, products, random);
+					return null;
+				}));
+			}
+
+			List<Future<?>> checkers = new ArrayList<>();
+			for (int t = 0; t < READERS; t++) {
+				Random random = new Random(_seed - t - 1);
+				checkers.add(executor.submit(() -> {
+					read(manager, random, changing);
+					return null;
+				}));
+			}
+			checkers.add(executor.submit(() -> {
+				checkWhileChanging(manager, changing);
+				return null;
+			}));
+
+			try {
+				for (Future<?> future : writers)
+					future.get();
+			} finally {
+				changing.set(false);
+			}
+			for (Future<?> future : checkers)
+				future.get();
+		} finally {
+			executor.shutdown();
+		}
+
+		checkLockScope(manager);
+		checkStock(manager);
+		check(manager.isConsistent(), "running totals disagree with the warehouse");
+
+		List<String> transactions = describeTransactions(manager);
+		check(transactions.size() == _transactions.get(), transactions.size() + " transactions found, " +
+			_transactions.get() + " registered");
+		for (String transaction : transactions) {
+			int key = Integer.parseInt(transaction.split("\\|")[1]);
+			check(manager.getTransaction(key).toString().equals(transaction), "transaction " + key + " isn't " + transaction);
+		}
+
+		checkReplay(manager, file.getPath());
+		checkConversion(manager);
+
+		System.out.println("shards=" + shards + " threads=" + _threads + " operations=" + _threads * _operations +
+			" transactions=" + _transactions.get() + " refused=" + _refused.get() + " units=" + manager.getStockUnits() +
+			" balance=" + Math.round(manager.getAvailableBalance()) + ": OK");
+
+		manager.disableJournal();
+		file.delete();
+		journal.delete();
+	}
+
+	/** @param args command line arguments (unused: options are system properties). */
+	public static void main(String[] args) throws Exception {
+		int threads = Integer.getInteger("threads", 4);
+		int operations = Integer.getInteger("operations", 5000);
+		int shards = Integer.getInteger("shards", 4);
+		long seed = Long.getLong("seed", 2021);
+
+		new StressTest(threads, operations, seed).run(0);
+		new StressTest(threads, operations, seed).run(shards);
+	}
+
+}
@@ -0,0 +1,123 @@
+package ggc.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import ggc.core.WarehouseManager;
+
+/**
+ * Replays a trace of the {@link WorkloadGenerator} on the warehouse of its import file.
+ *
+ * The trace is read as it is replayed, so traces of any length can be replayed.
+ * For each kind of command, the number of commands, the number of failures (commands
+ * that throw) and the time per command are reported on the standard error.
+ *
+ * Options are given as system properties (defaults in parentheses): {@code import}
+ * (workload.txt), {@code trace} (workload.trace) and {@code shards} (0, for a manager
+ * that isn't sharded).
+ */
+public class TraceReplayer {
+
+	/** Size of the read buffer. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The warehouse manager the trace is replayed on. */
+	private final WarehouseManager _manager;
+
+	/** Commands replayed, by kind. */
+	private final Map<String, long[]> _counts = new LinkedHashMap<>();
+
+	/**
+	 * @param manager the warehouse manager the trace is replayed on.
+	 */
+	TraceReplayer(WarehouseManager manager) {
+		_manager = manager;
+	}
+
+	/**
+	 * Replays a command. Counts are kept by kind: commands, failures and nanoseconds.
+	 *
+	 * @param line the command, as written by the generator.
+	 */
+	void replay(String line) {
+		String[] fields = line.split("\\|");
+		long[] counts = _counts.computeIfAbsent(fields[0], kind -> new long[3]);
+
+		long start = System.nanoTime();
+		try {
+			switch (fields[0]) {
+				case "ACQUISITION":
+					_manager.registerAcquisitionTransaction(fields[1], fields[2], Integer.parseInt(fields[3]),
+						Double.parseDouble(fields[4]));
+					break;
+				case "SALE":
+					_manager.registerSaleTransaction(fields[1], Integer.parseInt(fields[2]), fields[3],
+						Integer.parseInt(fields[4]));
+					break;
+				case "PAYMENT":
+					_manager.receivePayment(Integer.parseInt(fields[1]));
+					break;
+				case "BREAKDOWN":
+					_manager.registerBreakdownTransaction(fields[1], fields[2], Integer.parseInt(fields[3]));
+					break;
+				case "DATE":
+					_manager.forwardDate(Integer.parseInt(fields[1]));
+					break;
+				default:
+					throw new IllegalArgumentException("unknown command: " + line);
+			}
+		} catch (Exception e) {
+			counts[1]++;
+		}
+		counts[2] += System.nanoTime() - start;
+		counts[0]++;
+	}
+
+	/**
+	 * Reports the counts of the commands replayed.
+	 */
+	void report() {
+		long commands = 0;
+		long failures = 0;
+		long time = 0;
+
+		for (Map.Entry<String, long[]> entry: _counts.entrySet()) {
+			long[] counts = entry.getValue();
+			System.err.printf(Locale.ROOT, "%-12s %10d commands %8d failures %12.1f ns/op%n", entry.getKey(),
+				counts[0], counts[1], (double) counts[2] / counts[0]);
+			commands += counts[0];
+			failures += counts[1];
+			time += counts[2];
+		}
+
+		System.err.printf(Locale.ROOT, "%-12s %10d commands %8d failures %12.1f ops/s%n", "TOTAL", commands, failures,
+			(time > 0) ? commands * 1e9 / time : 0);
+	}
+
+	/** @param args command line arguments (unused: options are system properties). */
+	public static void main(String[] args) throws Exception {
+		WarehouseManager manager = new WarehouseManager();
+		int shards = Integer.getInteger("shards", 0);
+		if (shards > 0)
+			manager.setShards(shards);
+		manager.importFile(System.getProperty("import", "workload.txt"));
+
+		TraceReplayer replayer = new TraceReplayer(manager);
+		try (BufferedReader in = new BufferedReader(Files.newBufferedReader(
+				Paths.get(System.getProperty("trace", "workload.trace")), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.isEmpty())
+					replayer.replay(line);
+			}
+		}
+		replayer.report();
+	}
+
+}
@@ -0,0 +1,462 @@
+package ggc.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates a synthetic warehouse, as an import file, and a trace of commands to replay on it.
+ *
+ * The warehouse has partners, simple products and levels of aggregate products: the
+ * recipe of each aggregate product has a product of the level below and others of any
+ * lower level, so recipes are as deep as the number of levels. Batch prices follow a
+ * uniform, log-normal or Pareto distribution, and partners and products are picked with
+ * a Zipf skew (0 for uniform picks), so that a few of them get most of the traffic.
+ *
+ * The trace has one command per line, with the fields of the journal records:
+ * <pre>
+ * ACQUISITION|partner|product|amount|price
+ * SALE|partner|deadline|product|amount
+ * PAYMENT|transaction
+ * BREAKDOWN|partner|product|amount
+ * DATE|days
+ * </pre>
+ * The generator follows the stock of each product and the transactions registered,
+ * so that every sale and breakdown of the trace has enough stock and payments refer
+ * to credit sales of the trace. Files are written as they are generated: memory depends
+ * on the number of products, not on the number of lines.
+ *
+ * Options are given as system properties (defaults in parentheses): {@code seed} (2021),
+ * {@code partners} (100), {@code products} (1000), {@code levels} (3), {@code aggregates}
+ * per level (100), {@code components} per recipe, at most (4), {@code batches} per product (3),
+ * {@code stock} per batch, at most (100), {@code prices} (uniform, lognormal or pareto),
+ * {@code priceMin} (1), {@code priceMax} (1000, for uniform prices), {@code priceSigma}
+ * (1, for log-normal prices), {@code priceAlpha} (1.5, for Pareto prices), {@code skew} (1),
+ * {@code commands} (100000), {@code mix} of acquisitions, sales, payments, breakdowns and
+ * date advances (40,35,15,5,5), {@code import} (workload.txt) and {@code trace} (workload.trace).
+ */
+public class WorkloadGenerator {
+
+	/** Size of the write buffers. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Maximum number of unpaid credit sales remembered for payments. */
+	private static final int MAX_UNPAID = 1 << 20;
+
+	/** Maximum units per command. */
+	private static final int MAX_AMOUNT = 10;
+
+	/** Source of randomness. */
+	private final Random _random;
+
+	/** Number of partners. */
+	private final int _partners;
+
+	/** Number of simple products. */
+	private final int _simpleProducts;
+
+	/** Number of aggregate products per level. */
+	private final int _aggregates;
+
+	/** Number of aggregate levels. */
+	private final int _levels;
+
+	/** Maximum number of components per recipe. */
+	private final int _components;
+
+	/** Batches per product. */
+	private final int _batches;
+
+	/** Maximum units per batch. */
+	private final int _stock;
+
+	/** Price distribution: uniform, lognormal or pareto. */
+	private final String _prices;
+
+	/** Minimum price (the scale, for log-normal and Pareto prices). */
+	private final double _priceMin;
+
+	/** Maximum price, for uniform prices. */
+	private final double _priceMax;
+
+	/** Standard deviation of the price logarithms, for log-normal prices. */
+	private final double _priceSigma;
+
+	/** Shape of Pareto prices. */
+	private final double _priceAlpha;
+
+	/** Picks partners. */
+	private final Skew _partnerPicks;
+
+	/** Picks products. */
+	private final Skew _productPicks;
+
+	/** Cumulative weights of acquisitions, sales, payments, breakdowns and date advances. */
+	private final double[] _mix;
+
+	/** Units in stock of each product (simple products first, then aggregates by level). */
+	private final long[] _units;
+
+	/** Components of each aggregate product, as product indexes. */
+	private final int[][] _recipes;
+
+	/** Quantities of the components of each aggregate product. */
+	private final int[][] _quantities;
+
+	/** Keys of unpaid credit sales. */
+	private final int[] _unpaid;
+
+	/** Number of unpaid credit sales remembered. */
+	private int _unpaidCount;
+
+	/** Key of the next transaction registered. */
+	private int _nextTransaction;
+
+	/** Current date. */
+	private int _date;
+
+	/**
+	 * Creates a generator, with the options of the system properties.
+	 */
+	WorkloadGenerator() {
+		_random = new Random(Long.getLong("seed", 2021));
+		_partners = Integer.getInteger("partners", 100);
+		_simpleProducts = Integer.getInteger("products", 1000);
+		_levels = Integer.getInteger("levels", 3);
+		_aggregates = (_levels > 0) ? Integer.getInteger("aggregates", 100) : 0;
+		_components = Math.max(1, Integer.getInteger("components", 4));
+		_batches = Math.max(1, Integer.getInteger("batches", 3));
+		_stock = Math.max(1, Integer.getInteger("stock", 100));
+		_prices = System.getProperty("prices", "uniform");
+		_priceMin = Double.parseDouble(System.getProperty("priceMin", "1"));
+		_priceMax = Double.parseDouble(System.getProperty("priceMax", "1000"));
+		_priceSigma = Double.parseDouble(System.getProperty("priceSigma", "1"));
+		_priceAlpha = Double.parseDouble(System.getProperty("priceAlpha", "1.5"));
+
+		if (_partners < 1 || _simpleProducts < 1)
+			throw new IllegalArgumentException("there must be partners and products");
+		if (!_prices.equals("uniform") && !_prices.equals("lognormal") && !_prices.equals("pareto"))
+			throw new IllegalArgumentException("unknown price distribution: " + _prices);
+
+		double skew = Double.parseDouble(System.getProperty("skew", "1"));
+		_partnerPicks = new Skew(_partners, skew);
+		_productPicks = new Skew(_simpleProducts + _levels * _aggregates, skew);
+
+		String[] mix = System.getProperty("mix", "40,35,15,5,5").split(",");
+		if (mix.length != 5)
+			throw new IllegalArgumentException("the mix needs 5 weights: " + String.join(",", mix));
+		_mix = new double[mix.length];
+		double total = 0;
+		for (int i = 0; i < mix.length; i++) {
+			total += Double.parseDouble(mix[i].trim());
+			_mix[i] = total;
+		}
+		for (int i = 0; i < mix.length; i++) {
+			_mix[i] /= total;
+		}
+
+		_units = new long[_simpleProducts + _levels * _aggregates];
+		_recipes = new int[_levels * _aggregates][];
+		_quantities = new int[_levels * _aggregates][];
+		_unpaid = new int[MAX_UNPAID];
+	}
+
+	/**
+	 * @param index the partner index.
+	 * @return the key of the partner.
+	 */
+	private static String getPartner(int index) {
+		return "P" + index;
+	}
+
+	/**
+	 * @param index the product index (simple products first, then aggregates by level).
+	 * @return the key of the product.
+	 */
+	private String getProduct(int index) {
+		if (index < _simpleProducts)
+			return "S" + index;
+
+		int aggregate = index - _simpleProducts;
+		return "A" + (1 + aggregate / _aggregates) + "_" + (aggregate % _aggregates);
+	}
+
+	/**
+	 * @param index the product index.
+	 * @return true, if the product is an aggregate; false, otherwise.
+	 */
+	private boolean isAggregate(int index) {
+		return index >= _simpleProducts;
+	}
+
+	/**
+	 * @return a batch price.
+	 */
+	private double nextPrice() {
+		double price;
+
+		switch (_prices) {
+			case "lognormal":
+				price = _priceMin * Math.exp(_priceSigma * _random.nextGaussian());
+				break;
+			case "pareto":
+				price = _priceMin / Math.pow(1 - _random.nextDouble(), 1 / _priceAlpha);
+				break;
+			default:
+				price = _priceMin + (_priceMax - _priceMin) * _random.nextDouble();
+				break;
+		}
+
+		// Two decimal places, like the sample files.
+		return Math.max(0.01, Math.round(price * 100) / 100.0);
+	}
+
+	/**
+	 * Writes the import file: partners, then batches of simple products, then
+	 * batches of aggregate products, level by level.
+	 *
+	 * @param out where to write the file.
+	 * @throws IOException if the file can't be written.
+	 */
+	void writeImport(Writer out) throws IOException {
+		for (int i = 0; i < _partners; i++) {
+			out.write("PARTNER|" + getPartner(i) + "|Partner " + i + "|Address " + i + "\n");
+		}
+
+		for (int i = 0; i < _simpleProducts; i++) {
+			for (int j = 0; j < _batches; j++) {
+				int stock = 1 + _random.nextInt(_stock);
+				_units[i] += stock;
+				out.write("BATCH_S|" + getProduct(i) + "|" + getPartner(_partnerPicks.next(_random)) + "|" +
+					format(nextPrice()) + "|" + stock + "\n");
+			}
+		}
+
+		for (int level = 1; level <= _levels; level++) {
+			int lowest = (level == 1) ? 0 : _simpleProducts + (level - 2) * _aggregates;
+			int below = (level == 1) ? _simpleProducts : _aggregates;
+
+			for (int i = 0; i < _aggregates; i++) {
+				int aggregate = (level - 1) * _aggregates + i;
+				writeRecipe(aggregate, lowest, below);
+
+				String recipe = formatRecipe(aggregate);
+				double aggravation = Math.round(_random.nextDouble() * 100) / 100.0;
+				for (int j = 0; j < _batches; j++) {
+					int stock = 1 + _random.nextInt(_stock);
+					_units[_simpleProducts + aggregate] += stock;
+					out.write("BATCH_M|" + getProduct(_simpleProducts + aggregate) + "|" +
+						getPartner(_partnerPicks.next(_random)) + "|" + format(nextPrice()) + "|" + stock + "|" +
+						format(aggravation) + "|" + recipe + "\n");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Chooses the recipe of an aggregate product: a product of the level below,
+	 * and others of any lower level, all different.
+	 *
+	 * @param aggregate the aggregate index.
+	 * @param lowest    the index of the first product of the level below.
+	 * @param below     the number of products of the level below.
+	 */
+	private void writeRecipe(int aggregate, int lowest, int below) {
+		int first = _simpleProducts + (aggregate / _aggregates) * _aggregates;
+		int count = Math.min(1 + _random.nextInt(_components), first);
+		int[] components = new int[count];
+		int[] quantities = new int[count];
+
+		components[0] = lowest + _random.nextInt(below);
+		for (int i = 1; i < count; i++) {
+			int component;
+			boolean repeated;
+			do {
+				component = _random.nextInt(first);
+				repeated = false;
+				for (int j = 0; j < i; j++) {
+					repeated |= (components[j] == component);
+				}
+			} while (repeated);
+			components[i] = component;
+		}
+		for (int i = 0; i < count; i++) {
+			quantities[i] = 1 + _random.nextInt(3);
+		}
+
+		_recipes[aggregate] = components;
+		_quantities[aggregate] = quantities;
+	}
+
+	/**
+	 * @param aggregate the aggregate index.
+	 * @return the recipe, as written in import files.
+	 */
+	private String formatRecipe(int aggregate) {
+		StringBuilder recipe = new StringBuilder();
+		for (int i = 0; i < _recipes[aggregate].length; i++) {
+			if (i > 0)
+				recipe.append('#');
+			recipe.append(getProduct(_recipes[aggregate][i])).append(':').append(_quantities[aggregate][i]);
+		}
+		return recipe.toString();
+	}
+
+	/**
+	 * Writes the trace of commands. A command that can't be done (a sale without
+	 * enough stock, a payment with no unpaid sale) is replaced by an acquisition.
+	 *
+	 * @param out      where to write the trace.
+	 * @param commands the number of commands.
+	 * @throws IOException if the trace can't be written.
+	 */
+	void writeTrace(Writer out, long commands) throws IOException {
+		for (long i = 0; i < commands; i++) {
+			double kind = _random.nextDouble();
+			String partner = getPartner(_partnerPicks.next(_random));
+			int product = _productPicks.next(_random);
+			int amount = 1 + _random.nextInt(MAX_AMOUNT);
+
+			if (kind < _mix[0]) {
+				writeAcquisition(out, partner, product, amount);
+
+			} else if (kind < _mix[1]) {
+				if (_units[product] < amount) {
+					writeAcquisition(out, partner, product, amount);
+					continue;
+				}
+				_units[product] -= amount;
+				out.write("SALE|" + partner + "|" + (_date + _random.nextInt(30)) + "|" + getProduct(product) + "|" + amount + "\n");
+				remember(_nextTransaction++);
+
+			} else if (kind < _mix[2]) {
+				if (_unpaidCount == 0) {
+					writeAcquisition(out, partner, product, amount);
+					continue;
+				}
+				int position = _random.nextInt(_unpaidCount);
+				out.write("PAYMENT|" + _unpaid[position] + "\n");
+				_unpaid[position] = _unpaid[--_unpaidCount];
+
+			} else if (kind < _mix[3]) {
+				if (!isAggregate(product) || _units[product] < amount) {
+					writeAcquisition(out, partner, product, amount);
+					continue;
+				}
+				int aggregate = product - _simpleProducts;
+				_units[product] -= amount;
+				for (int j = 0; j < _recipes[aggregate].length; j++) {
+					_units[_recipes[aggregate][j]] += (long) amount * _quantities[aggregate][j];
+				}
+				out.write("BREAKDOWN|" + partner + "|" + getProduct(product) + "|" + amount + "\n");
+				_nextTransaction++;
+
+			} else {
+				int days = 1 + _random.nextInt(3);
+				_date += days;
+				out.write("DATE|" + days + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Writes an acquisition.
+	 *
+	 * @param out     where to write the trace.
+	 * @param partner the partner key.
+	 * @param product the product index.
+	 * @param amount  the units acquired.
+	 * @throws IOException if the trace can't be written.
+	 */
+	private void writeAcquisition(Writer out, String partner, int product, int amount) throws IOException {
+		_units[product] += amount;
+		out.write("ACQUISITION|" + partner + "|" + getProduct(product) + "|" + amount + "|" + format(nextPrice()) + "\n");
+		_nextTransaction++;
+	}
+
+	/**
+	 * Remembers an unpaid credit sale, forgetting a random one if too many are remembered.
+	 *
+	 * @param transaction the credit sale key.
+	 */
+	private void remember(int transaction) {
+		if (_unpaidCount < _unpaid.length)
+			_unpaid[_unpaidCount++] = transaction;
+		else
+			_unpaid[_random.nextInt(_unpaid.length)] = transaction;
+	}
+
+	/**
+	 * @param value a number.
+	 * @return the number, with no more than two decimal places.
+	 */
+	private static String format(double value) {
+		String text = String.format(Locale.ROOT, "%.2f", value);
+		return text.endsWith(".00") ? text.substring(0, text.length() - 3) : text;
+	}
+
+	/**
+	 * Picks indexes with a Zipf skew: index {@code k} is picked with probability
+	 * proportional to {@code 1 / (k + 1)^s}. Uses the inverse of the continuous
+	 * distribution, so it needs no tables, however many indexes there are.
+	 */
+	private static class Skew {
+
+		/** Number of indexes. */
+		private final int _size;
+
+		/** Skew exponent (0, for uniform picks). */
+		private final double _exponent;
+
+		/**
+		 * @param size     the number of indexes.
+		 * @param exponent the skew exponent.
+		 */
+		private Skew(int size, double exponent) {
+			_size = size;
+			_exponent = exponent;
+		}
+
+		/**
+		 * @param random the source of randomness.
+		 * @return an index.
+		 */
+		private int next(Random random) {
+			if (_exponent <= 0)
+				return random.nextInt(_size);
+
+			double u = random.nextDouble();
+			double rank;
+			if (Math.abs(_exponent - 1) < 1e-9) {
+				rank = Math.exp(u * Math.log(_size + 1));
+			} else {
+				double power = 1 - _exponent;
+				rank = Math.pow(u * (Math.pow(_size + 1, power) - 1) + 1, 1 / power);
+			}
+			return Math.min(_size - 1, (int) rank - 1);
+		}
+
+	}
+
+	/** @param args command line arguments (unused: options are system properties). */
+	public static void main(String[] args) throws IOException {
+		WorkloadGenerator generator = new WorkloadGenerator();
+		long commands = Long.getLong("commands", 100000);
+
+		try (BufferedWriter out = new BufferedWriter(Files.newBufferedWriter(
+				Paths.get(System.getProperty("import", "workload.txt")), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+			generator.writeImport(out);
+		}
+
+		try (BufferedWriter out = new BufferedWriter(Files.newBufferedWriter(
+				Paths.get(System.getProperty("trace", "workload.trace")), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+			generator.writeTrace(out, commands);
+		}
+	}
+
+}
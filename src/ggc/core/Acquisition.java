@@ -24,9 +24,6 @@ public class Acquisition extends Transaction {
 		super(key, partner, product, quantity, paymentDate);
 		_price = price;
 
-		// Add new stock of product.
-		product.add(quantity, partner, price / quantity);
-
 		// Pay the transaction.
 		pay();
 	}
@@ -1,8 +1,12 @@
 package ggc.core;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
 
 import ggc.core.exception.NoProductStockException;
@@ -16,9 +20,15 @@ import ggc.core.exception.NoProductStockException;
  */
 public class AggregateProduct extends Product {
 
+	/** Serial number for serialization, matching previously saved files. */
+	private static final long serialVersionUID = 7175926745667992462L;
+
 	/** The product recipe. */
 	private Recipe _recipe;
 
+	/** The recipe, flattened over all its levels (rebuilt on first use, when loaded). */
+	private transient BillOfMaterials _billOfMaterials;
+
 	/**
 	 * Creates a new aggregate product.
 	 *
@@ -30,6 +40,28 @@ public class AggregateProduct extends Product {
 	AggregateProduct(String key, double aggravation, List<Product> products, List<Integer> amounts) {
 		super(key);
 		_recipe = new Recipe(aggravation, products, amounts);
+		_billOfMaterials = new BillOfMaterials(_recipe._components);
+	}
+
+	/**
+	 * The recipe never changes, so its flattened form is only built once.
+	 *
+	 * @return the flattened recipe.
+	 */
+	private BillOfMaterials getBillOfMaterials() {
+		BillOfMaterials billOfMaterials = _billOfMaterials;
+		if (billOfMaterials == null) {
+			billOfMaterials = new BillOfMaterials(_recipe._components);
+			_billOfMaterials = billOfMaterials;
+		}
+		return billOfMaterials;
+	}
+
+	/**
+	 * @return the products the aggregate product is made of, at all levels of its recipe.
+	 */
+	List<Product> getAllComponents() {
+		return getBillOfMaterials()._allComponents;
 	}
 
 	/**
@@ -61,13 +93,11 @@ public class AggregateProduct extends Product {
 	@Override
 	double disaggregate(int amount, Partner partner) {
 		double componentPrice;
+		BillOfMaterials billOfMaterials = getBillOfMaterials();
 
-		Iterator<Product> prodIter = getProductIterator();
-		Iterator<Integer> quantIter = getQuantityIterator();
-
-		while (prodIter.hasNext() && quantIter.hasNext()) {
-			Product component = prodIter.next();
-			int componentAmount = quantIter.next();
+		for (int i = 0; i < billOfMaterials._components.length; i++) {
+			Product component = billOfMaterials._components[i];
+			int componentAmount = billOfMaterials._quantities[i];
 
 			componentPrice = (component.hasStock()) ? component.getLowestPrice() : component.getMaxPrice();
 
@@ -87,37 +117,14 @@ public class AggregateProduct extends Product {
 	 */
 	@Override
 	void checkAggregation(int amount) throws NoProductStockException {
-		// Iterate over all components, to know their insertion prices.
-		Iterator<Product> prodIter = getProductIterator();
-		Iterator<Integer> quantIter = getQuantityIterator();
-
-		while (prodIter.hasNext() && quantIter.hasNext()) {
-			Product component = prodIter.next();
-			int componentAmount = quantIter.next();
-
-			try {
-				// Check aggregation for all subcomponents.
-				component.checkAggregation((amount - getStock()) * componentAmount);
-			} catch (NoProductStockException e) {
-				throw e;
-			}
-		}
-	}
-
-	/**
-	 * Aggregates the product.
-	 */
-	@Override
-	void aggregate() {
-		Iterator<Product> prodIter = getProductIterator();
-		Iterator<Integer> quantIter = getQuantityIterator();
-
-		while (prodIter.hasNext() && quantIter.hasNext()) {
-			Product component = prodIter.next();
-			int componentAmount = quantIter.next();
-
-			component.aggregate();
-		}
+		// With enough stock, no component is needed.
+		int missing = amount - getStock();
+		if (missing <= 0)
+			return;
+
+		BillOfMaterials billOfMaterials = getBillOfMaterials();
+		if (!billOfMaterials.hasSimpleProducts(missing))
+			billOfMaterials.checkComponents(amount, getStock());
 	}
 
 	/**
@@ -151,6 +158,162 @@ public class AggregateProduct extends Product {
 		return super.toString() + "|" + _recipe;
 	}
 
+	/**
+	 * The recipe of an aggregate product, flattened over all its levels: the
+	 * products of the recipe, of the recipes of those products, and so on,
+	 * in the order of a recursive walk of the recipe, and the simple products
+	 * at the bottom of the recipe, with the units needed for each unit of the
+	 * aggregate product. Kept in arrays, so that checking an aggregation
+	 * goes through them in a single loop, with no iterators.
+	 */
+	private static class BillOfMaterials {
+
+		/** The products of the recipe itself. */
+		private final Product[] _components;
+
+		/** The quantities of the products of the recipe itself. */
+		private final int[] _quantities;
+
+		/** The products at all levels of the recipe, each under its parent. */
+		private final Product[] _nodes;
+
+		/** Index of each product's parent (negative, for the products of the recipe itself). */
+		private final int[] _parents;
+
+		/** Quantity of each product in its parent's recipe. */
+		private final int[] _nodeQuantities;
+
+		/** Whether each product is a simple product (at the bottom of the recipe). */
+		private final boolean[] _simple;
+
+		/** The products at all levels of the recipe, as a list. */
+		private final List<Product> _allComponents;
+
+		/** The distinct simple products at the bottom of the recipe. */
+		private final Product[] _simpleProducts;
+
+		/** Units of each simple product needed for each unit of the aggregate product. */
+		private final long[] _simpleQuantities;
+
+		/**
+		 * Flattens a recipe.
+		 *
+		 * @param components the components of the recipe.
+		 */
+		private BillOfMaterials(List<Component> components) {
+			_components = new Product[components.size()];
+			_quantities = new int[components.size()];
+			for (int i = 0; i < components.size(); i++) {
+				_components[i] = components.get(i)._product;
+				_quantities[i] = components.get(i)._amount;
+			}
+
+			List<Product> nodes = new ArrayList<>();
+			List<Integer> parents = new ArrayList<>();
+			List<Integer> quantities = new ArrayList<>();
+			Map<Product, Long> simpleProducts = new IdentityHashMap<>();
+			List<Product> simpleOrder = new ArrayList<>();
+
+			for (int i = 0; i < _components.length; i++) {
+				flatten(_components[i], _quantities[i], -1, _quantities[i], nodes, parents, quantities, simpleProducts, simpleOrder);
+			}
+
+			_nodes = nodes.toArray(new Product[0]);
+			_parents = new int[_nodes.length];
+			_nodeQuantities = new int[_nodes.length];
+			_simple = new boolean[_nodes.length];
+			for (int i = 0; i < _nodes.length; i++) {
+				_parents[i] = parents.get(i);
+				_nodeQuantities[i] = quantities.get(i);
+				_simple[i] = !_nodes[i].getProductIterator().hasNext();
+			}
+			_allComponents = Collections.unmodifiableList(Arrays.asList(_nodes));
+
+			_simpleProducts = simpleOrder.toArray(new Product[0]);
+			_simpleQuantities = new long[_simpleProducts.length];
+			for (int i = 0; i < _simpleProducts.length; i++) {
+				_simpleQuantities[i] = simpleProducts.get(_simpleProducts[i]);
+			}
+		}
+
+		/**
+		 * Adds a product and, recursively, the products of its recipe.
+		 *
+		 * @param product        the product.
+		 * @param quantity       the quantity of the product in its parent's recipe.
+		 * @param parent         the index of the product's parent.
+		 * @param units          the units of the product needed for each unit of the aggregate product.
+		 * @param nodes          the products added so far.
+		 * @param parents        the parents of the products added so far.
+		 * @param quantities     the quantities of the products added so far.
+		 * @param simpleProducts the units of each simple product added so far.
+		 * @param simpleOrder    the simple products added so far, in the order they were added.
+		 */
+		private static void flatten(Product product, int quantity, int parent, long units, List<Product> nodes,
+				List<Integer> parents, List<Integer> quantities, Map<Product, Long> simpleProducts, List<Product> simpleOrder) {
+			int index = nodes.size();
+			nodes.add(product);
+			parents.add(parent);
+			quantities.add(quantity);
+
+			Iterator<Product> prodIter = product.getProductIterator();
+			Iterator<Integer> quantIter = product.getQuantityIterator();
+
+			if (!prodIter.hasNext()) {
+				if (!simpleProducts.containsKey(product))
+					simpleOrder.add(product);
+				simpleProducts.merge(product, units, Long::sum);
+				return;
+			}
+
+			while (prodIter.hasNext() && quantIter.hasNext()) {
+				int componentAmount = quantIter.next();
+				flatten(prodIter.next(), componentAmount, index, units * componentAmount, nodes, parents, quantities,
+					simpleProducts, simpleOrder);
+			}
+		}
+
+		/**
+		 * Checks if the simple products have enough stock for the missing units, even if
+		 * none of the aggregate products in the recipe had any stock. If so, aggregation is
+		 * possible, without going through the whole recipe.
+		 *
+		 * @param missing the units of the aggregate product missing.
+		 * @return true, if there is enough stock of every simple product; false, if the recipe must be checked.
+		 */
+		private boolean hasSimpleProducts(int missing) {
+			for (int i = 0; i < _simpleProducts.length; i++) {
+				if (_simpleProducts[i].getStock() < missing * _simpleQuantities[i])
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Checks the recipe level by level, as the recursive walk of the recipe would:
+		 * each product is needed for the units of its parent missing, and each simple
+		 * product must have the units needed.
+		 *
+		 * @param amount the units of the aggregate product needed.
+		 * @param stock  the units of the aggregate product in stock.
+		 * @throws NoProductStockException if there's not enough stock of a simple product.
+		 */
+		private void checkComponents(int amount, int stock) throws NoProductStockException {
+			long[] needed = new long[_nodes.length];
+
+			for (int i = 0; i < _nodes.length; i++) {
+				int parent = _parents[i];
+				long missing = (parent < 0) ? amount - stock : needed[parent] - _nodes[parent].getStock();
+				needed[i] = missing * _nodeQuantities[i];
+
+				// Needs beyond what an int holds can't be met anyway.
+				if (_simple[i] && needed[i] > 0)
+					_nodes[i].checkAggregation((int) Math.min(needed[i], Integer.MAX_VALUE));
+			}
+		}
+
+	}
+
 	/**
 	 * This public class represents a component.
 	 * Each component is made up by a product, in a certain amount.
@@ -0,0 +1,78 @@
+package ggc.core;
+
+import java.util.List;
+
+/**
+ * This public class implements asynchronous notification delivery.
+ * Notifications are handed over to a dispatcher and delivered in the background
+ * by another delivery method, so that a slow delivery (an e-mail gateway, a webhook)
+ * doesn't hold up the operation that caused the notification.
+ */
+public class AsyncNotificationDeliveryMethod implements NotificationDeliveryMethod {
+
+	/** The delivery method that actually delivers notifications. */
+	private NotificationDeliveryMethod _method;
+
+	/** The dispatcher that delivers in the background. */
+	private NotificationDispatcher _dispatcher;
+
+	/**
+	 * Creates a new asynchronous delivery method, using the default dispatcher.
+	 *
+	 * @param method the delivery method that actually delivers notifications.
+	 */
+	public AsyncNotificationDeliveryMethod(NotificationDeliveryMethod method) {
+		this(method, NotificationDispatcher.getDefault());
+	}
+
+	/**
+	 * Creates a new asynchronous delivery method.
+	 *
+	 * @param method     the delivery method that actually delivers notifications.
+	 * @param dispatcher the dispatcher that delivers in the background.
+	 */
+	public AsyncNotificationDeliveryMethod(NotificationDeliveryMethod method, NotificationDispatcher dispatcher) {
+		_method = method;
+		_dispatcher = dispatcher;
+	}
+
+	/**
+	 * @return the dispatcher that delivers in the background.
+	 */
+	public NotificationDispatcher getDispatcher() {
+		return _dispatcher;
+	}
+
+	/**
+	 * Queues the notification for delivery.
+	 *
+	 * @param notification the notification to deliver.
+	 */
+	public void deliverNotification(Notification notification) {
+		_dispatcher.submit(null, _method, notification);
+	}
+
+	/**
+	 * Queues the notification of a partner for delivery.
+	 *
+	 * @param partner      the partner notified.
+	 * @param notification the notification to deliver.
+	 */
+	@Override
+	public void deliverNotification(Partner partner, Notification notification) {
+		_dispatcher.submit(partner, _method, notification);
+	}
+
+	/**
+	 * Queues the notifications for delivery.
+	 *
+	 * @param notifications the notifications to deliver, in order.
+	 */
+	@Override
+	public void deliverNotifications(List<Notification> notifications) {
+		for (Notification notification: notifications) {
+			_dispatcher.submit(null, _method, notification);
+		}
+	}
+
+}
@@ -1,7 +1,9 @@
 package ggc.core;
 
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Comparator;
+import java.util.Objects;
 
 /**
  * Class Batch implements a batch.
@@ -13,6 +15,14 @@ public class Batch implements Comparable<Batch>, Serializable {
 	/** Serial number for serialization. */
 	private static final long serialVersionUID = 202109192006L;
 
+	/** Fields of a serialized batch, as saved before snapshots were introduced (its product numbers it). */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("_product", Product.class),
+		new ObjectStreamField("_partner", Partner.class),
+		new ObjectStreamField("_stock", int.class),
+		new ObjectStreamField("_price", double.class),
+	};
+
 	/** Product to hold. */
 	private Product _product;
 
@@ -25,6 +35,12 @@ public class Batch implements Comparable<Batch>, Serializable {
 	/** Product unit price. */
 	private double _price;
 
+	/** Batch identifier, in order of arrival among the product's batches. */
+	private int _id;
+
+	/** Partner sorted before all partners, supplying no batch (see {@link #first(Product)}). */
+	private static final Partner NO_PARTNER = new Partner("", "", "");
+
 	/**
 	 * Creates a new batch.
 	 *
@@ -37,6 +53,28 @@ public class Batch implements Comparable<Batch>, Serializable {
 		_partner = partner;
 		_stock = 0;
 		_price = price;
+		_id = product.nextBatchId();
+	}
+
+	/**
+	 * Creates a batch sorted before all batches of a product, to search them.
+	 *
+	 * @param product the product.
+	 */
+	private Batch(Product product) {
+		_product = product;
+		_partner = NO_PARTNER;
+		_stock = 0;
+		_price = Double.NEGATIVE_INFINITY;
+		_id = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * @param product the product.
+	 * @return a batch sorted before all batches of the product, held by no product.
+	 */
+	static Batch first(Product product) {
+		return new Batch(product);
 	}
 
 	/**
@@ -67,6 +105,22 @@ public class Batch implements Comparable<Batch>, Serializable {
 		return _price;
 	}
 
+	/**
+	 * @return the batch identifier among the product's batches.
+	 */
+	int getId() {
+		return _id;
+	}
+
+	/**
+	 * Changes the batch identifier, when restoring a batch saved without one.
+	 *
+	 * @param id the batch identifier.
+	 */
+	void setId(int id) {
+		_id = id;
+	}
+
 	/**
 	 * Determines if the batch is empty.
 	 *
@@ -101,6 +155,9 @@ public class Batch implements Comparable<Batch>, Serializable {
 	}
 
 	/**
+	 * Batches with the same price are ordered by product and partner and,
+	 * for the same product and partner, by order of arrival.
+	 *
 	 * @return a batch's comparator by price.
 	 */
 	static final Comparator<Batch> getComparatorByPrice() {
@@ -111,7 +168,7 @@ public class Batch implements Comparable<Batch>, Serializable {
 
 			@Override
 			public int compare(Batch b1, Batch b2) {
-				int i = (int) (b1.getPrice() - b2.getPrice());
+				int i = Double.compare(b1.getPrice(), b2.getPrice());
 				if (i != 0)
 					return i;
 
@@ -123,8 +180,7 @@ public class Batch implements Comparable<Batch>, Serializable {
 				if (i != 0)
 					return i;
 
-				i = b1.getStock() - b2.getStock();
-				return i;
+				return Integer.compare(b1.getId(), b2.getId());
 			}
 		}
 
@@ -137,12 +193,19 @@ public class Batch implements Comparable<Batch>, Serializable {
 		return other instanceof Batch &&
 			   _product.equals(((Batch) other).getProduct()) &&
 			   _partner.equals(((Batch) other).getPartner()) &&
-			   _stock == ((Batch) other).getStock() &&
-			   _price == ((Batch) other).getPrice();
+			   _price == ((Batch) other).getPrice() &&
+			   _id == ((Batch) other).getId();
+	}
+
+	/** @see java.lang.Object#hashCode() */
+	@Override
+	public int hashCode() {
+		return Objects.hash(_product.getKey(), _partner.getKey(), _price, _id);
 	}
 
 	/**
-	 * Compares batches.
+	 * Compares batches by product, partner and price and,
+	 * for the same product, partner and price, by order of arrival.
 	 */
 	@Override
 	public int compareTo(Batch other) {
@@ -154,12 +217,11 @@ public class Batch implements Comparable<Batch>, Serializable {
 		if (i != 0)
 			return i;
 
-		i = (int) (_price - other.getPrice());
+		i = Double.compare(_price, other.getPrice());
 		if (i != 0)
 			return i;
 
-		i = _stock - other.getStock();
-		return i;
+		return Integer.compare(_id, other.getId());
 	}
 
   	/**
@@ -3,6 +3,7 @@ package ggc.core;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 
 import ggc.core.exception.NoProductStockException;
 
@@ -12,6 +13,9 @@ import ggc.core.exception.NoProductStockException;
  */
 public class BreakdownSale extends Sale {
 
+	/** Serial number for serialization, matching previously saved files. */
+	private static final long serialVersionUID = -765776693984546211L;
+
 	/** The transaction's base price. */
 	private double _basePrice;
 
@@ -68,6 +72,39 @@ public class BreakdownSale extends Sale {
 		this.pay();
 	}
 
+	/**
+	 * Restores a previously saved breakdown sale.
+	 *
+	 * @param id             the breakdown sale's identifier.
+	 * @param partner        the breakdown sale's associated partner.
+	 * @param product        the breakdown sale's processed product.
+	 * @param amount         the amount of product processed.
+	 * @param paymentDate    the breakdown sale's payment date.
+	 * @param basePrice      the breakdown sale's base price.
+	 * @param effectivePrice the breakdown sale's paid price.
+	 * @param productPrices  the component prices at the time of the sale.
+	 */
+	BreakdownSale(int id, Partner partner, Product product, int amount, Date paymentDate, double basePrice, double effectivePrice, List<Double> productPrices) {
+		super(id, partner, product, amount, paymentDate);
+		_basePrice = basePrice;
+		_effectivePrice = effectivePrice;
+		_productPrices = new ArrayList<>(productPrices);
+	}
+
+	/**
+	 * @return the transaction's base price.
+	 */
+	double getBasePrice() {
+		return _basePrice;
+	}
+
+	/**
+	 * @return the component prices at the time of the sale.
+	 */
+	List<Double> getProductPrices() {
+		return Collections.unmodifiableList(_productPrices);
+	}
+
 	/**
 	 * @return the transaction's paid price.
 	 */
@@ -0,0 +1,6 @@
+package ggc.core;
+
+/** Levels of status public classification. */
+enum Classification {
+	NORMAL, SELECTION, ELITE;
+}
@@ -0,0 +1,68 @@
+package ggc.core;
+
+import ggc.core.exception.InvalidDateIncrementException;
+
+/**
+ * The current day of a warehouse.
+ *
+ * Each warehouse has its own clock, shared with its partners, so that several
+ * warehouses can run side by side in the same process. Days are plain numbers,
+ * so reading the current day doesn't create any object.
+ */
+public class Clock {
+
+	/** The current day. */
+	private volatile int _today;
+
+	/**
+	 * Creates a clock at day 0.
+	 */
+	public Clock() {
+		this(0);
+	}
+
+	/**
+	 * Creates a clock.
+	 *
+	 * @param today the current day.
+	 */
+	public Clock(int today) {
+		_today = today;
+	}
+
+	/**
+	 * @return the current day.
+	 */
+	public int today() {
+		return _today;
+	}
+
+	/**
+	 * Moves the clock forward.
+	 *
+	 * @param days the number of days to move forward by.
+	 * @throws InvalidDateIncrementException if the number of days is not positive.
+	 */
+	void forward(int days) throws InvalidDateIncrementException {
+		if (days <= 0)
+			throw new InvalidDateIncrementException(days);
+
+		_today += days;
+	}
+
+	/**
+	 * Sets the current day, when a saved warehouse is loaded.
+	 *
+	 * @param today the current day.
+	 */
+	void set(int today) {
+		_today = today;
+	}
+
+	/** @see java.lang.Object#toString() */
+	@Override
+	public String toString() {
+		return "" + _today;
+	}
+
+}
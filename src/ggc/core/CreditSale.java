@@ -6,6 +6,9 @@ package ggc.core;
  */
 public class CreditSale extends Sale {
 
+	/** Serial number for serialization, matching previously saved files. */
+	private static final long serialVersionUID = -2904342622919228833L;
+
 	/** The credit sale's base price. */
 	private double _basePrice;
 
@@ -36,6 +39,25 @@ public class CreditSale extends Sale {
 		updatePrice();
 	}
 
+	/**
+	 * Restores a previously saved credit sale.
+	 *
+	 * @param key             the credit sale's key.
+	 * @param partner         the credit sale's associated partner.
+	 * @param product         the credit sale's processed product.
+	 * @param amount          the quantity of product processed.
+	 * @param basePrice       the credit sale's base price.
+	 * @param effectivePrice  the credit sale's last calculated price.
+	 * @param paymentDeadline the credit sale's payment deadline.
+	 * @param paymentDate     the credit sale's payment date (null, if not paid).
+	 */
+	CreditSale(int key, Partner partner, Product product, int amount, double basePrice, double effectivePrice, Date paymentDeadline, Date paymentDate) {
+		super(key, partner, product, amount, paymentDate);
+		_basePrice = basePrice;
+		_effectivePrice = effectivePrice;
+		_paymentDeadline = paymentDeadline;
+	}
+
 	/**
 	 * @return the credit sale's base price.
 	 */
@@ -0,0 +1,49 @@
+package ggc.core;
+
+/**
+ * This class records the units of product drawn when removing stock,
+ * along with their total price.
+ * Batches are drawn from in price order, each in a single step.
+ */
+class Drawdown {
+
+	/** Total number of units drawn. */
+	private int _units;
+
+	/** Total price of the units drawn. */
+	private double _total;
+
+	/**
+	 * Creates a new, empty, drawdown.
+	 */
+	Drawdown() {
+		_units = 0;
+		_total = 0;
+	}
+
+	/**
+	 * @return the total number of units drawn.
+	 */
+	int getUnits() {
+		return _units;
+	}
+
+	/**
+	 * @return the total price of the units drawn.
+	 */
+	double getPrice() {
+		return _total;
+	}
+
+	/**
+	 * Records units drawn from a batch.
+	 *
+	 * @param batch the batch drawn from.
+	 * @param units the number of units drawn.
+	 */
+	void record(Batch batch, int units) {
+		_units += units;
+		_total += units * batch.getPrice();
+	}
+
+}
@@ -5,6 +5,9 @@ package ggc.core;
  */
 public class EliteStatus extends Status {
 
+	/** Serial number for serialization, as computed for files saved before it was declared. */
+	private static final long serialVersionUID = -6525183830093684334L;
+
 	/**
 	 * Creates a new elite status.
 	 */
@@ -58,6 +61,23 @@ public class EliteStatus extends Status {
 		return price;
 	}
 
+	/**
+	 * The price is the same all through the 1st and 2nd periods, and all through
+	 * the 3rd, and is final from the 4th period on.
+	 *
+	 * @param timeDelay the current payment delay.
+	 * @param nFactor   the product's time factor.
+	 */
+	int getNextPriceChangeDelay(int timeDelay, int nFactor) {
+		if (timeDelay < 1)
+			return 1;
+
+		if (timeDelay < nFactor + 1)
+			return nFactor + 1;
+
+		return NEVER;
+	}
+
 	/**
 	 * Applies the punctuation penalties, according to the payment time delay.
 	 *
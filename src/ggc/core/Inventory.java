@@ -0,0 +1,201 @@
+package ggc.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * This class keeps track of the stock held by all products of a warehouse.
+ * Products update it whenever units are added to or drawn from their batches,
+ * so that the warehouse totals are always available without going through
+ * every batch. Products updated in parallel share it, hence the synchronization.
+ *
+ * It also indexes the batches of all products, in their natural order and by price,
+ * so that all batches, or those under a given price, are found without going through
+ * every product, and without sorting them.
+ */
+class Inventory {
+
+	/** Relative difference allowed between the total value and the value of every batch. */
+	private static final double TOLERANCE = 1e-6;
+
+	/** Total number of units in stock. */
+	private long _units;
+
+	/** Total value of the units in stock, at their batch prices. */
+	private double _value;
+
+	/** Batches of all products, in their natural order. */
+	private NavigableSet<Batch> _batches;
+
+	/** Batches of all products, sorted by price. */
+	private NavigableSet<Batch> _batchesByPrice;
+
+	/**
+	 * Creates a new, empty, inventory.
+	 */
+	Inventory() {
+		_units = 0;
+		_value = 0;
+		_batches = new ConcurrentSkipListSet<>();
+		_batchesByPrice = new ConcurrentSkipListSet<>(Batch.getComparatorByPrice());
+	}
+
+	/**
+	 * @return the total number of units in stock.
+	 */
+	synchronized long getUnits() {
+		return _units;
+	}
+
+	/**
+	 * @return the total value of the units in stock.
+	 */
+	synchronized double getValue() {
+		return _value;
+	}
+
+	/**
+	 * Records a change in the stock of a batch.
+	 *
+	 * @param units the number of units added (negative, if drawn).
+	 * @param price the batch unit price.
+	 */
+	synchronized void update(int units, double price) {
+		_units += units;
+		_value += units * price;
+
+		// Avoid leaving rounding residue once the stock runs out.
+		if (_units == 0)
+			_value = 0;
+	}
+
+	/**
+	 * Indexes a batch of a product.
+	 *
+	 * @param batch the batch.
+	 */
+	void addBatch(Batch batch) {
+		_batches.add(batch);
+		_batchesByPrice.add(batch);
+	}
+
+	/**
+	 * Indexes batches of a product.
+	 *
+	 * @param batches the batches.
+	 */
+	void addBatches(Collection<Batch> batches) {
+		_batches.addAll(batches);
+		_batchesByPrice.addAll(batches);
+	}
+
+	/**
+	 * Removes a batch of a product from the index.
+	 *
+	 * @param batch the batch.
+	 */
+	void removeBatch(Batch batch) {
+		_batches.remove(batch);
+		_batchesByPrice.remove(batch);
+	}
+
+	/**
+	 * @return all batches, sorted by their natural order.
+	 */
+	Collection<Batch> getBatches() {
+		return new ArrayList<>(_batches);
+	}
+
+	/**
+	 * @return a lazy stream of all batches, sorted by their natural order.
+	 */
+	Stream<Batch> streamBatches() {
+		return _batches.stream();
+	}
+
+	/**
+	 * Streams the batches of a product, going through those only:
+	 * they are together in the index, as batches are sorted by product first.
+	 *
+	 * @param product the product.
+	 * @return a lazy stream of the batches of the product, sorted by their natural order.
+	 */
+	Stream<Batch> streamBatches(Product product) {
+		return _batches.tailSet(Batch.first(product)).stream().takeWhile(batch -> batch.getProduct() == product);
+	}
+
+	/**
+	 * Returns a page of the batches, sorted by their natural order.
+	 * The batch given as cursor needn't be indexed anymore: the page
+	 * starts where it was, or would be.
+	 *
+	 * @param after the last batch of the previous page (null, for the first page).
+	 * @param limit the highest number of batches of the page.
+	 * @return the batches following the given one (none, after the last page).
+	 */
+	List<Batch> getBatchesAfter(Batch after, int limit) {
+		Iterator<Batch> batches = ((after != null) ? _batches.tailSet(after, false) : _batches).iterator();
+		List<Batch> page = new ArrayList<>();
+
+		while (page.size() < limit && batches.hasNext()) {
+			page.add(batches.next());
+		}
+
+		return page;
+	}
+
+	/**
+	 * Returns the batches under the specified price. Only those batches are visited:
+	 * the scan stops at the first batch of the index that isn't cheaper.
+	 *
+	 * @param price the price to compare to.
+	 * @return the batches under the price, sorted by their natural order.
+	 */
+	Collection<Batch> getBatchesUnderGivenPrice(double price) {
+		List<Batch> batches = new ArrayList<>();
+
+		for (Batch batch: _batchesByPrice) {
+			if (batch.getPrice() >= price)
+				break;
+			batches.add(batch);
+		}
+
+		Collections.sort(batches);
+
+		return batches;
+	}
+
+	/**
+	 * Checks the totals against the stock and batches of the given products.
+	 *
+	 * @param products all products of the warehouse.
+	 * @return true, if the totals agree with the products; false, otherwise.
+	 */
+	synchronized boolean isConsistent(Collection<Product> products) {
+		long productUnits = 0;
+		long batchUnits = 0;
+		double batchValue = 0;
+		int batches = 0;
+
+		for (Product product: products) {
+			productUnits += product.getStock();
+			for (Batch batch: product.getBatches()) {
+				batchUnits += batch.getStock();
+				batchValue += batch.getStock() * batch.getPrice();
+				batches++;
+			}
+		}
+
+		return productUnits == _units &&
+			batchUnits == _units &&
+			batches == _batches.size() &&
+			Math.abs(batchValue - _value) <= TOLERANCE * Math.max(1, Math.abs(batchValue));
+	}
+
+}
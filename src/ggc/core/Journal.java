@@ -0,0 +1,324 @@
+package ggc.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the changes made to a warehouse since its last snapshot.
+ *
+ * Each record is a sequence of string fields (much like a line of an import file),
+ * tagged with an increasing sequence number and framed with its length and checksum,
+ * so that a record torn by a crash is detected and ignored on replay.
+ *
+ * Records are buffered, and forced to disk in groups (group commit): a thread waiting
+ * for its record to be on disk either forces all records appended so far, for every
+ * thread waiting, or waits for the thread already doing so. While a group is forced,
+ * the following records are appended, to be forced together by the next thread.
+ * Once records fail to be forced, nothing else is appended.
+ */
+class Journal implements Closeable {
+
+	/** Maximum size of a record, in bytes. */
+	private static final int MAX_RECORD_SIZE = 1 << 20;
+
+	/** Name of the journal file. */
+	private String _filename;
+
+	/** The journal file. */
+	private FileOutputStream _file;
+
+	/** Buffered output to the journal file. */
+	private DataOutputStream _out;
+
+	/** Sequence number of the last appended record. */
+	private long _lastSequence;
+
+	/** Number of records appended since the journal was last truncated. */
+	private int _records;
+
+	/** Sequence number of the last record forced to disk. */
+	private long _syncedSequence;
+
+	/** Whether a thread is forcing records to disk. */
+	private boolean _syncing;
+
+	/** Failure to force records to disk, if any. */
+	private IOException _failure;
+
+	/**
+	 * Opens a journal for appending.
+	 *
+	 * @param filename     the journal file name.
+	 * @param lastSequence the sequence number of the last record already applied.
+	 * @throws IOException if the journal file can't be opened.
+	 */
+	Journal(String filename, long lastSequence) throws IOException {
+		_filename = filename;
+		_file = new FileOutputStream(filename, true);
+		_out = new DataOutputStream(new BufferedOutputStream(_file));
+		_lastSequence = lastSequence;
+		_syncedSequence = lastSequence;
+		_records = 0;
+	}
+
+	/**
+	 * @return the journal file name.
+	 */
+	String getFilename() {
+		return _filename;
+	}
+
+	/**
+	 * @return the sequence number of the last appended record.
+	 */
+	synchronized long getLastSequence() {
+		return _lastSequence;
+	}
+
+	/**
+	 * @return the number of records appended since the journal was last truncated.
+	 */
+	synchronized int size() {
+		return _records;
+	}
+
+	/**
+	 * Checks that records are still forced to disk, before making a change to journal.
+	 *
+	 * @throws IOException the failure to force records to disk, if any.
+	 */
+	synchronized void checkFailure() throws IOException {
+		if (_failure != null)
+			throw _failure;
+	}
+
+	/**
+	 * Appends a record to the journal, without waiting for it to be on disk.
+	 *
+	 * @param fields the record fields.
+	 * @return the record's sequence number, to wait for with {@link #awaitSync(long)}.
+	 * @throws IOException if the record can't be written.
+	 */
+	synchronized long append(String... fields) throws IOException {
+		checkFailure();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream record = new DataOutputStream(bytes);
+
+		record.writeLong(_lastSequence + 1);
+		record.writeInt(fields.length);
+		for (String field: fields) {
+			record.writeUTF(field);
+		}
+
+		byte[] payload = bytes.toByteArray();
+		CRC32 checksum = new CRC32();
+		checksum.update(payload);
+
+		_out.writeInt(payload.length);
+		_out.write(payload);
+		_out.writeInt((int) checksum.getValue());
+
+		_records++;
+		return ++_lastSequence;
+	}
+
+	/**
+	 * Waits until a record is on disk, forcing it (and all records appended
+	 * before and meanwhile) unless another thread is already forcing them.
+	 *
+	 * @param sequence the record's sequence number.
+	 * @throws IOException if the record can't be forced to disk.
+	 */
+	void awaitSync(long sequence) throws IOException {
+		long target;
+
+		synchronized (this) {
+			while (_syncedSequence < sequence) {
+				checkFailure();
+				if (!_syncing)
+					break;
+				await();
+			}
+			if (_syncedSequence >= sequence)
+				return;
+
+			// Lead the next group: write out every record appended so far.
+			try {
+				_out.flush();
+			} catch (IOException e) {
+				fail(e);
+			}
+			target = _lastSequence;
+			_syncing = true;
+		}
+
+		// Records are appended while the group is forced, outside the lock.
+		IOException failure = null;
+		try {
+			_file.getChannel().force(false);
+		} catch (IOException e) {
+			failure = e;
+		}
+
+		synchronized (this) {
+			_syncing = false;
+			if (failure != null)
+				fail(failure);
+			_syncedSequence = Math.max(_syncedSequence, target);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Forces all appended records to disk.
+	 *
+	 * @throws IOException if the records can't be written.
+	 */
+	synchronized void sync() throws IOException {
+		while (_syncing) {
+			await();
+		}
+		if (_syncedSequence == _lastSequence)
+			return;
+
+		try {
+			_out.flush();
+			_file.getChannel().force(false);
+		} catch (IOException e) {
+			fail(e);
+		}
+		_syncedSequence = _lastSequence;
+		notifyAll();
+	}
+
+	/**
+	 * Discards all records, once they're part of a snapshot.
+	 *
+	 * @throws IOException if the journal file can't be truncated.
+	 */
+	synchronized void truncate() throws IOException {
+		while (_syncing) {
+			await();
+		}
+
+		try {
+			_out.flush();
+			_file.getChannel().truncate(0);
+			_file.getChannel().force(true);
+		} catch (IOException e) {
+			fail(e);
+		}
+		_records = 0;
+		_syncedSequence = _lastSequence;
+		notifyAll();
+	}
+
+	/**
+	 * Waits for the thread forcing records to disk. The lock must be held.
+	 *
+	 * @throws InterruptedIOException if the thread is interrupted while waiting.
+	 */
+	private void await() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for the journal");
+		}
+	}
+
+	/**
+	 * Records a failure to force records to disk, waking up the threads waiting for them.
+	 * The lock must be held.
+	 *
+	 * @param failure the failure.
+	 * @throws IOException the failure.
+	 */
+	private void fail(IOException failure) throws IOException {
+		_failure = failure;
+		notifyAll();
+		throw failure;
+	}
+
+	/**
+	 * Forces pending records to disk and closes the journal.
+	 *
+	 * @throws IOException if the records can't be written.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			_out.close();
+		}
+	}
+
+	/**
+	 * Reads all valid records of a journal file newer than the given sequence number.
+	 * Reading stops at the first incomplete or corrupted record.
+	 *
+	 * @param filename     the journal file name.
+	 * @param lastSequence the sequence number of the last record already applied.
+	 * @return the fields of each record, in order.
+	 * @throws IOException if the journal file can't be read.
+	 */
+	static List<String[]> read(String filename, long lastSequence) throws IOException {
+		List<String[]> records = new ArrayList<>();
+
+		if (!new File(filename).exists())
+			return records;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+			while (true) {
+				byte[] payload;
+				int expected;
+
+				try {
+					int length = in.readInt();
+					if (length < 0 || length > MAX_RECORD_SIZE)
+						break;
+
+					payload = new byte[length];
+					in.readFully(payload);
+					expected = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+
+				CRC32 checksum = new CRC32();
+				checksum.update(payload);
+				if ((int) checksum.getValue() != expected)
+					break;
+
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+				long sequence = record.readLong();
+				String[] fields = new String[record.readInt()];
+				for (int i = 0; i < fields.length; i++) {
+					fields[i] = record.readUTF();
+				}
+
+				if (sequence > lastSequence)
+					records.add(fields);
+			}
+		}
+
+		return records;
+	}
+
+}
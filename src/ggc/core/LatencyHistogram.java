@@ -0,0 +1,134 @@
+package ggc.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, in nanoseconds, with buckets of logarithmic size.
+ * Each power of two is split into the same number of linear sub-buckets (as in
+ * HdrHistogram), so that any recorded value is known within about 3%, from a
+ * nanosecond up to centuries, in a fixed number of counters. Recording takes
+ * no locks, so the histogram may be shared by threads.
+ */
+class LatencyHistogram {
+
+	/** Bits of each value kept by its bucket. */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/** Number of buckets of the values below the first power of two split. */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** Number of buckets of each of the following powers of two. */
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+	/** Number of buckets, enough for any positive long value. */
+	private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+	/** Number of values recorded in each bucket. */
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+
+	/** Number of values recorded. */
+	private final LongAdder _count = new LongAdder();
+
+	/** Sum of the values recorded. */
+	private final LongAdder _sum = new LongAdder();
+
+	/** Highest value recorded. */
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value the value (negative values are recorded as 0).
+	 */
+	void record(long value) {
+		value = Math.max(0, value);
+
+		_counts.incrementAndGet(indexOf(value));
+		_count.increment();
+		_sum.add(value);
+
+		// Most values are not the highest: only those that are need to update it.
+		if (value > _max.get())
+			_max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * @return the number of values recorded.
+	 */
+	long getCount() {
+		return _count.sum();
+	}
+
+	/**
+	 * @return the mean of the values recorded (0, if there are none).
+	 */
+	double getMean() {
+		long count = _count.sum();
+		return (count > 0) ? (double) _sum.sum() / count : 0;
+	}
+
+	/**
+	 * @return the highest value recorded (0, if there are none).
+	 */
+	long getMax() {
+		return _max.get();
+	}
+
+	/**
+	 * Returns a percentile of the values recorded: the highest value of the bucket
+	 * holding the value below which the given fraction of the values lie.
+	 *
+	 * @param fraction the fraction of the values (0.99, for the 99th percentile).
+	 * @return the percentile (0, if there are no values).
+	 */
+	long getPercentile(double fraction) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+
+		// Values recorded meanwhile may be missed: the percentile is of those counted here.
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = _counts.get(i);
+			total += counts[i];
+		}
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highestValueOf(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * @param value a value, not negative.
+	 * @return the index of the value's bucket.
+	 */
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		// Keep the highest bits of the value: its power of two chooses the group of buckets.
+		int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) ((value >>> shift) - HALF_SUB_BUCKETS);
+	}
+
+	/**
+	 * @param index the index of a bucket.
+	 * @return the highest value of the bucket.
+	 */
+	static long highestValueOf(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+
+		int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
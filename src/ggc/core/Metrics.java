@@ -0,0 +1,307 @@
+package ggc.core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of a warehouse manager: the number of calls, the number of failures and
+ * the latency histogram of each operation, and gauges of the size of its warehouse.
+ *
+ * Operations record their latency without taking locks, so metrics stay on while
+ * the manager is in use. Only the outermost operation of each thread is measured:
+ * the operations it calls (lookups, saves by checkpoints, replays by a load, and
+ * operations run in a shard on its behalf) are part of its own latency.
+ */
+public class Metrics {
+
+	/**
+	 * The measured operations of a warehouse manager.
+	 */
+	enum Operation {
+		FORWARD_DATE, GET_AVAILABLE_BALANCE, GET_ACCOUNTING_BALANCE, GET_STOCK_UNITS, GET_STOCK_VALUE,
+		REGISTER_SIMPLE_PRODUCT, REGISTER_AGGREGATE_PRODUCT, GET_PRODUCT, GET_PRODUCTS,
+		GET_BATCHES, GET_BATCHES_AFTER, GET_BATCHES_BY_PRODUCT, GET_BATCHES_BY_PARTNER, GET_BATCHES_UNDER_GIVEN_PRICE,
+		REGISTER_PARTNER, GET_PARTNER, SET_NOTIFICATION_DELIVERY_METHOD, CONFIGURE_NOTIFICATION_INBOX,
+		GET_PARTNERS, GET_PARTNER_NOTIFICATIONS, TOGGLE_NOTIFICATIONS,
+		GET_ACQUISITIONS_BY_PARTNER, GET_SALES_BY_PARTNER, GET_PARTNER_PAID_TRANSACTIONS,
+		REGISTER_ACQUISITION_TRANSACTION, REGISTER_SALE_TRANSACTION, RECEIVE_PAYMENT,
+		REGISTER_BREAKDOWN_TRANSACTION, GET_TRANSACTION,
+		QUERY_PRODUCTS, QUERY_PARTNERS, QUERY_BATCHES, QUERY_BATCHES_BY_PRODUCT, QUERY_BATCHES_BY_PARTNER,
+		QUERY_ACQUISITIONS_BY_PARTNER, QUERY_SALES_BY_PARTNER,
+		SAVE, SAVE_AS, SAVE_SERIALIZED, LOAD, ENABLE_JOURNAL, DISABLE_JOURNAL, IMPORT_FILE;
+
+		/** Name of the operation's method. */
+		private final String _method;
+
+		/**
+		 * Derives the name of the method from the name of the constant.
+		 */
+		Operation() {
+			StringBuilder method = new StringBuilder();
+			for (String word: name().toLowerCase(Locale.ROOT).split("_")) {
+				method.append((method.length() == 0) ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+			}
+			_method = method.toString();
+		}
+
+	}
+
+	/** Latencies of each operation, by ordinal. */
+	private final LatencyHistogram[] _latencies;
+
+	/** Failures of each operation, by ordinal. */
+	private final LongAdder[] _failures;
+
+	/** Gauges, by name, in the order they were added. */
+	private final Map<String, LongSupplier> _gauges = new LinkedHashMap<>();
+
+	/** Number of operations being run by each thread. */
+	private final ThreadLocal<int[]> _depth = ThreadLocal.withInitial(() -> new int[1]);
+
+	/** Thread writing the metrics to a file periodically (null, if none). */
+	private ScheduledExecutorService _dumper;
+
+	/** File the metrics are written to periodically (null, if none). */
+	private String _dumpFilename;
+
+	/**
+	 * Creates the metrics, with no operations recorded.
+	 */
+	Metrics() {
+		Operation[] operations = Operation.values();
+		_latencies = new LatencyHistogram[operations.length];
+		_failures = new LongAdder[operations.length];
+
+		for (int i = 0; i < operations.length; i++) {
+			_latencies[i] = new LatencyHistogram();
+			_failures[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Adds a gauge. Gauges are only added while the metrics are created.
+	 *
+	 * @param name  the gauge's name.
+	 * @param value the gauge's current value.
+	 */
+	void addGauge(String name, LongSupplier value) {
+		_gauges.put(name, value);
+	}
+
+	/**
+	 * An operation returning a result, which may throw up to three kinds of checked exceptions.
+	 */
+	@FunctionalInterface
+	interface Call<T, E1 extends Exception, E2 extends Exception, E3 extends Exception> {
+		T call() throws E1, E2, E3;
+	}
+
+	/**
+	 * An operation returning no result, which may throw up to three kinds of checked exceptions.
+	 */
+	@FunctionalInterface
+	interface Action<E1 extends Exception, E2 extends Exception, E3 extends Exception> {
+		void run() throws E1, E2, E3;
+	}
+
+	/**
+	 * Runs an operation, recording its latency and, if it throws, its failure.
+	 *
+	 * @param operation the operation.
+	 * @param call      the operation's body.
+	 * @return the operation's result.
+	 */
+	<T, E1 extends Exception, E2 extends Exception, E3 extends Exception> T measure(Operation operation,
+			Call<T, E1, E2, E3> call) throws E1, E2, E3 {
+		long start = start();
+		try {
+			return call.call();
+		} catch (Throwable e) {
+			fail(operation, start);
+			throw e;
+		} finally {
+			stop(operation, start);
+		}
+	}
+
+	/**
+	 * Runs an operation, recording its latency and, if it throws, its failure.
+	 *
+	 * @param operation the operation.
+	 * @param action    the operation's body.
+	 */
+	<E1 extends Exception, E2 extends Exception, E3 extends Exception> void measure(Operation operation,
+			Action<E1, E2, E3> action) throws E1, E2, E3 {
+		this.<Void, E1, E2, E3>measure(operation, () -> {
+			action.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Starts an operation.
+	 *
+	 * @return the operation's start time (negative, if it's called by another, and not measured).
+	 */
+	private long start() {
+		return (_depth.get()[0]++ == 0) ? System.nanoTime() : -1;
+	}
+
+	/**
+	 * Records a failure of an operation, before it stops.
+	 *
+	 * @param operation the operation.
+	 * @param start     the operation's start time.
+	 */
+	private void fail(Operation operation, long start) {
+		if (start >= 0)
+			_failures[operation.ordinal()].increment();
+	}
+
+	/**
+	 * Stops an operation, recording its latency.
+	 *
+	 * @param operation the operation.
+	 * @param start     the operation's start time.
+	 */
+	private void stop(Operation operation, long start) {
+		_depth.get()[0]--;
+		if (start >= 0)
+			_latencies[operation.ordinal()].record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Makes operations run by another thread, on behalf of the current one, part of its own operation.
+	 *
+	 * @param task the task calling the operations.
+	 * @return the task, with its operations not measured.
+	 */
+	<T> Callable<T> nested(Callable<T> task) {
+		return () -> {
+			int[] depth = _depth.get();
+			depth[0]++;
+			try {
+				return task.call();
+			} finally {
+				depth[0]--;
+			}
+		};
+	}
+
+	/**
+	 * Returns the current metrics, one per line: first the gauges, as
+	 * {@code name|value}, then the operations called so far, as
+	 * {@code name|calls|failures|mean|p50|p90|p99|max}, with latencies in nanoseconds.
+	 *
+	 * @return the current metrics.
+	 */
+	public List<String> getSnapshot() {
+		List<String> lines = new ArrayList<>();
+
+		for (Map.Entry<String, LongSupplier> gauge: _gauges.entrySet()) {
+			lines.add(gauge.getKey() + "|" + gauge.getValue().getAsLong());
+		}
+
+		for (Operation operation: Operation.values()) {
+			LatencyHistogram latencies = _latencies[operation.ordinal()];
+			long calls = latencies.getCount();
+			if (calls == 0)
+				continue;
+
+			lines.add(operation._method + "|" +
+				calls + "|" +
+				_failures[operation.ordinal()].sum() + "|" +
+				Math.round(latencies.getMean()) + "|" +
+				latencies.getPercentile(0.5) + "|" +
+				latencies.getPercentile(0.9) + "|" +
+				latencies.getPercentile(0.99) + "|" +
+				latencies.getMax());
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Writes the current metrics to a file, replacing it only when complete.
+	 *
+	 * @param filename the file's name.
+	 * @throws IOException if the file can't be written.
+	 */
+	public void dump(String filename) throws IOException {
+		Path file = Paths.get(filename);
+		Path tmpFile = Paths.get(filename + ".tmp");
+
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tmpFile))) {
+			for (String line: getSnapshot()) {
+				out.println(line);
+			}
+		}
+		Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Starts writing the metrics to a file periodically, instead of any file they were written to.
+	 *
+	 * @param filename the file's name.
+	 * @param period   the number of seconds between writes.
+	 */
+	public synchronized void startDumping(String filename, long period) {
+		if (period < 1)
+			throw new IllegalArgumentException("dump period must be positive: " + period);
+
+		stopDumping();
+		_dumpFilename = filename;
+		_dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "warehouse-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		_dumper.scheduleAtFixedRate(() -> {
+			try {
+				dump(filename);
+			} catch (IOException e) {
+				// Try again in the next period.
+			}
+		}, period, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops writing the metrics to a file periodically, writing them one last time.
+	 */
+	public synchronized void stopDumping() {
+		if (_dumper == null)
+			return;
+
+		// Let a write in progress finish, so that it doesn't overwrite the last one.
+		_dumper.shutdown();
+		try {
+			_dumper.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		_dumper = null;
+
+		try {
+			dump(_dumpFilename);
+		} catch (IOException e) {
+			// The file keeps the previous metrics.
+		}
+		_dumpFilename = null;
+	}
+
+}
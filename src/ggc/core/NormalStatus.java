@@ -5,6 +5,9 @@ package ggc.core;
  */
 public class NormalStatus extends Status {
 
+	/** Serial number for serialization, as computed for files saved before it was declared. */
+	private static final long serialVersionUID = -7889199807797658306L;
+
 	/**
 	 * Creates a new normal status.
 	 */
@@ -58,6 +61,23 @@ public class NormalStatus extends Status {
 		return price;
 	}
 
+	/**
+	 * The price is the same all through the 1st period, and all through the 2nd,
+	 * and changes every day afterwards.
+	 *
+	 * @param timeDelay the current payment delay.
+	 * @param nFactor   the product's time factor.
+	 */
+	int getNextPriceChangeDelay(int timeDelay, int nFactor) {
+		if (timeDelay < -nFactor + 1)
+			return -nFactor + 1;
+
+		if (timeDelay < 1)
+			return 1;
+
+		return timeDelay + 1;
+	}
+
 	/**
 	 * Applies the punctuation penalties, according to the payment time delay.
 	 *
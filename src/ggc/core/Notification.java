@@ -1,6 +1,7 @@
 package ggc.core;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * Represents a notification.
@@ -32,6 +33,46 @@ public class Notification implements Serializable {
 		_price = price;
 	}
 
+	/**
+	 * @return the notification's type.
+	 */
+	String getType() {
+		return _type;
+	}
+
+	/**
+	 * @return the product associated with the notification.
+	 */
+	Product getProduct() {
+		return _product;
+	}
+
+	/**
+	 * @return the product's price.
+	 */
+	double getPrice() {
+		return _price;
+	}
+
+	/**
+	 * Notifications are equal if they have the same type, product and price.
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Notification &&
+			   _type.equals(((Notification) other).getType()) &&
+			   _product == ((Notification) other).getProduct() &&
+			   _price == ((Notification) other).getPrice();
+	}
+
+	/** @see java.lang.Object#hashCode() */
+	@Override
+	public int hashCode() {
+		return Objects.hash(_type, System.identityHashCode(_product), _price);
+	}
+
 	/**
 	 * String representation of notification.
 	 *
@@ -1,5 +1,7 @@
 package ggc.core;
 
+import java.util.List;
+
 /**
  * This interface allows the app to have various notification delivery methods.
  * Example: SMS, Email, ...
@@ -12,4 +14,29 @@ public interface NotificationDeliveryMethod {
 	 * @param notification the notification to deliver.
 	 */
 	public void deliverNotification(Notification notification);
+
+	/**
+	 * Delivers the notification of a partner.
+	 * Methods shared by several partners may need to know whose notification it is;
+	 * by default, it is delivered like any other.
+	 *
+	 * @param partner      the partner notified.
+	 * @param notification the notification to deliver.
+	 */
+	public default void deliverNotification(Partner partner, Notification notification) {
+		deliverNotification(notification);
+	}
+
+	/**
+	 * Delivers several notifications at once.
+	 * Methods able to send notifications together (a single e-mail, a single request)
+	 * should override this; by default, notifications are delivered one at a time.
+	 *
+	 * @param notifications the notifications to deliver, in order.
+	 */
+	public default void deliverNotifications(List<Notification> notifications) {
+		for (Notification notification: notifications) {
+			deliverNotification(notification);
+		}
+	}
 }
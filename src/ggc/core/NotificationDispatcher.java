@@ -0,0 +1,348 @@
+package ggc.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers notifications in the background, on behalf of asynchronous delivery methods.
+ *
+ * Notifications wait in a bounded queue and are delivered by worker threads,
+ * in batches: each worker takes all the notifications waiting (up to a limit)
+ * and hands those of each partner over to its delivery method together, in order.
+ * When the queue is full, new notifications are either dropped or wait for room,
+ * according to the dispatcher's backpressure policy.
+ */
+public class NotificationDispatcher {
+
+	/** What to do with a notification when the queue is full. */
+	public enum Backpressure {
+		/** Discard the notification. */
+		DROP,
+		/** Wait until there's room in the queue. */
+		BLOCK
+	}
+
+	/** Default capacity of the queue. */
+	static final int DEFAULT_CAPACITY = 8192;
+
+	/** Maximum number of notifications taken from the queue at once. */
+	private static final int MAX_BATCH = 256;
+
+	/** Dispatcher used by delivery methods not given one. */
+	private static NotificationDispatcher _default;
+
+	/** Notifications waiting to be delivered. */
+	private BlockingQueue<Delivery> _queue;
+
+	/** What to do when the queue is full. */
+	private Backpressure _backpressure;
+
+	/** Worker threads. */
+	private List<Thread> _workers;
+
+	/** Whether the dispatcher was closed. */
+	private volatile boolean _closed;
+
+	/** Number of notifications accepted but not yet delivered. */
+	private AtomicLong _pending;
+
+	/** Number of notifications delivered. */
+	private LongAdder _delivered;
+
+	/** Number of notifications dropped because the queue was full. */
+	private LongAdder _dropped;
+
+	/** Number of notifications whose delivery failed. */
+	private LongAdder _failed;
+
+	/** Total time notifications waited until delivered, in nanoseconds. */
+	private LongAdder _totalLatency;
+
+	/** Longest time a notification waited until delivered, in nanoseconds. */
+	private AtomicLong _maxLatency;
+
+	/**
+	 * Creates a new dispatcher, with its worker threads.
+	 *
+	 * @param capacity     the capacity of the queue.
+	 * @param workers      the number of worker threads.
+	 * @param backpressure what to do when the queue is full.
+	 */
+	public NotificationDispatcher(int capacity, int workers, Backpressure backpressure) {
+		_queue = new ArrayBlockingQueue<>(capacity);
+		_backpressure = backpressure;
+		_closed = false;
+		_pending = new AtomicLong();
+		_delivered = new LongAdder();
+		_dropped = new LongAdder();
+		_failed = new LongAdder();
+		_totalLatency = new LongAdder();
+		_maxLatency = new AtomicLong();
+
+		_workers = new ArrayList<>();
+		for (int i = 0; i < workers; i++) {
+			Thread worker = new Thread(this::run, "notification-delivery-" + i);
+			worker.setDaemon(true);
+			worker.start();
+			_workers.add(worker);
+		}
+	}
+
+	/**
+	 * @return the dispatcher used by delivery methods not given one.
+	 */
+	static synchronized NotificationDispatcher getDefault() {
+		if (_default == null)
+			_default = new NotificationDispatcher(DEFAULT_CAPACITY, 1, Backpressure.BLOCK);
+
+		return _default;
+	}
+
+	/**
+	 * @return the backpressure policy.
+	 */
+	public Backpressure getBackpressure() {
+		return _backpressure;
+	}
+
+	/**
+	 * @return the number of notifications waiting in the queue.
+	 */
+	public int getQueueDepth() {
+		return _queue.size();
+	}
+
+	/**
+	 * @return the number of notifications delivered.
+	 */
+	public long getDelivered() {
+		return _delivered.sum();
+	}
+
+	/**
+	 * @return the number of notifications dropped because the queue was full.
+	 */
+	public long getDropped() {
+		return _dropped.sum();
+	}
+
+	/**
+	 * @return the number of notifications whose delivery failed.
+	 */
+	public long getFailed() {
+		return _failed.sum();
+	}
+
+	/**
+	 * @return the average time notifications waited until delivered, in nanoseconds.
+	 */
+	public double getAverageLatency() {
+		long delivered = _delivered.sum() + _failed.sum();
+		return (delivered > 0) ? (double) _totalLatency.sum() / delivered : 0;
+	}
+
+	/**
+	 * @return the longest time a notification waited until delivered, in nanoseconds.
+	 */
+	public long getMaxLatency() {
+		return _maxLatency.get();
+	}
+
+	/**
+	 * Queues a notification for delivery.
+	 *
+	 * @param partner      the partner notified (null, if unknown).
+	 * @param method       the delivery method that will deliver it.
+	 * @param notification the notification.
+	 * @return true, if the notification was queued; false, if it was dropped.
+	 */
+	boolean submit(Partner partner, NotificationDeliveryMethod method, Notification notification) {
+		// Pending before checking, so that workers don't stop before it is queued.
+		_pending.incrementAndGet();
+		if (_closed) {
+			completed(1);
+			throw new IllegalStateException("notification dispatcher is closed");
+		}
+
+		Delivery delivery = new Delivery(partner, method, notification, System.nanoTime());
+
+		if (_backpressure == Backpressure.DROP) {
+			if (_queue.offer(delivery))
+				return true;
+		} else {
+			try {
+				_queue.put(delivery);
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		_dropped.increment();
+		completed(1);
+		return false;
+	}
+
+	/**
+	 * Waits until all queued notifications are delivered.
+	 *
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void flush() throws InterruptedException {
+		synchronized (_pending) {
+			while (_pending.get() > 0) {
+				_pending.wait();
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting notifications, delivers all those already accepted and
+	 * stops the worker threads.
+	 *
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void close() throws InterruptedException {
+		_closed = true;
+
+		for (Thread worker: _workers) {
+			worker.join();
+		}
+	}
+
+	/**
+	 * Takes notifications from the queue and delivers them, until closed
+	 * and no notification is pending.
+	 */
+	private void run() {
+		List<Delivery> batch = new ArrayList<>();
+
+		while (!_closed || _pending.get() > 0) {
+			try {
+				Delivery first = _queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue;
+
+				batch.add(first);
+				_queue.drainTo(batch, MAX_BATCH - 1);
+				deliver(batch);
+			} catch (InterruptedException e) {
+				// Interrupted: stop.
+				return;
+			} finally {
+				completed(batch.size());
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Delivers a batch of notifications, grouped by partner: the notifications of
+	 * each partner are delivered together, even if several partners share a delivery
+	 * method (those whose partner is unknown are grouped by themselves).
+	 *
+	 * @param batch the notifications, in queue order.
+	 */
+	private void deliver(List<Delivery> batch) {
+		Map<Partner, List<Delivery>> byPartner = new LinkedHashMap<>();
+		for (Delivery delivery: batch) {
+			byPartner.computeIfAbsent(delivery._partner, partner -> new ArrayList<>()).add(delivery);
+		}
+
+		for (List<Delivery> deliveries: byPartner.values()) {
+			// A partner's delivery method may have changed while its notifications waited.
+			int start = 0;
+			for (int end = 1; end <= deliveries.size(); end++) {
+				if (end == deliveries.size() || deliveries.get(end)._method != deliveries.get(start)._method) {
+					deliverTogether(deliveries.subList(start, end));
+					start = end;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delivers notifications of the same partner, with the same delivery method.
+	 *
+	 * @param deliveries the notifications, in queue order.
+	 */
+	private void deliverTogether(List<Delivery> deliveries) {
+		List<Notification> notifications = new ArrayList<>();
+		for (Delivery delivery: deliveries) {
+			notifications.add(delivery._notification);
+		}
+
+		boolean failed = false;
+		try {
+			deliveries.get(0)._method.deliverNotifications(notifications);
+		} catch (RuntimeException e) {
+			// A failing delivery method must not stop the others.
+			failed = true;
+		}
+
+		long now = System.nanoTime();
+		for (Delivery delivery: deliveries) {
+			long latency = now - delivery._queued;
+			_totalLatency.add(latency);
+			_maxLatency.accumulateAndGet(latency, Math::max);
+		}
+
+		if (failed)
+			_failed.add(notifications.size());
+		else
+			_delivered.add(notifications.size());
+	}
+
+	/**
+	 * Accounts notifications no longer pending, waking those waiting for a flush.
+	 *
+	 * @param count the number of notifications.
+	 */
+	private void completed(int count) {
+		if (count > 0 && _pending.addAndGet(-count) == 0) {
+			synchronized (_pending) {
+				_pending.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * A notification waiting to be delivered.
+	 */
+	private static class Delivery {
+
+		/** The partner notified (null, if unknown). */
+		private final Partner _partner;
+
+		/** The delivery method that will deliver the notification. */
+		private final NotificationDeliveryMethod _method;
+
+		/** The notification. */
+		private final Notification _notification;
+
+		/** When the notification was queued, in nanoseconds. */
+		private final long _queued;
+
+		/**
+		 * @param partner      the partner notified.
+		 * @param method       the delivery method.
+		 * @param notification the notification.
+		 * @param queued       when the notification was queued.
+		 */
+		private Delivery(Partner partner, NotificationDeliveryMethod method, Notification notification, long queued) {
+			_partner = partner;
+			_method = method;
+			_notification = notification;
+			_queued = queued;
+		}
+
+	}
+
+}
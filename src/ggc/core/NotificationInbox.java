@@ -0,0 +1,256 @@
+package ggc.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unread notifications of a partner.
+ *
+ * Notifications are kept as plain (type, product, price) entries in a ring buffer,
+ * instead of one object each, and only turned into notifications when read.
+ * The inbox may hold a limited number of entries, in which case the oldest are
+ * discarded to make room for new ones. It may also coalesce notifications:
+ * a notification of the same type and product as an unread one just updates
+ * its price, keeping its place in the inbox.
+ * Acquisitions of any product may notify the partner, so access is synchronized.
+ */
+class NotificationInbox {
+
+	/** Capacity of an unlimited inbox. */
+	static final int UNLIMITED = Integer.MAX_VALUE;
+
+	/** Initial size of the buffers. */
+	private static final int INITIAL_SIZE = 4;
+
+	/** Notification types, as values of {@link NotificationType}. */
+	private static final NotificationType[] TYPES = NotificationType.values();
+
+	/** Maximum number of entries. */
+	private int _capacity;
+
+	/** Whether notifications of the same type and product are coalesced. */
+	private boolean _coalescing;
+
+	/** Type of each entry. */
+	private byte[] _types;
+
+	/** Product of each entry. */
+	private Product[] _products;
+
+	/** Price of each entry. */
+	private double[] _prices;
+
+	/** Position of the oldest entry in the buffers. */
+	private int _start;
+
+	/** Number of entries. */
+	private int _size;
+
+	/** Sequence number of the oldest entry (entries are numbered in arrival order). */
+	private long _first;
+
+	/** Sequence number of the unread entry of each product, by type (only when coalescing). */
+	private Map<Product, long[]> _unread;
+
+	/**
+	 * Creates a new, empty, unlimited inbox, without coalescing.
+	 */
+	NotificationInbox() {
+		this(UNLIMITED, false);
+	}
+
+	/**
+	 * Creates a new, empty, inbox.
+	 *
+	 * @param capacity   the maximum number of entries.
+	 * @param coalescing whether notifications of the same type and product are coalesced.
+	 */
+	NotificationInbox(int capacity, boolean coalescing) {
+		checkCapacity(capacity);
+
+		_capacity = capacity;
+		_coalescing = coalescing;
+		clear();
+	}
+
+	/**
+	 * @return the maximum number of entries.
+	 */
+	synchronized int getCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * @return true, if notifications of the same type and product are coalesced; false, otherwise.
+	 */
+	synchronized boolean isCoalescing() {
+		return _coalescing;
+	}
+
+	/**
+	 * @return the number of unread notifications.
+	 */
+	synchronized int size() {
+		return _size;
+	}
+
+	/**
+	 * Changes the inbox limits, keeping the newest entries that fit.
+	 *
+	 * @param capacity   the maximum number of entries.
+	 * @param coalescing whether notifications of the same type and product are coalesced.
+	 */
+	synchronized void configure(int capacity, boolean coalescing) {
+		checkCapacity(capacity);
+
+		List<Notification> notifications = peek();
+
+		_capacity = capacity;
+		_coalescing = coalescing;
+		clear();
+
+		for (Notification notification: notifications) {
+			add(notification);
+		}
+	}
+
+	/**
+	 * Checks that an inbox may hold the given number of entries.
+	 *
+	 * @param capacity the maximum number of entries.
+	 * @throws IllegalArgumentException if the capacity isn't positive.
+	 */
+	static void checkCapacity(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("inbox capacity must be positive: " + capacity);
+	}
+
+	/**
+	 * Adds a notification.
+	 *
+	 * @param notification the notification to add.
+	 */
+	synchronized void add(Notification notification) {
+		int type = NotificationType.valueOf(notification.getType()).ordinal();
+		Product product = notification.getProduct();
+
+		if (_coalescing) {
+			long[] unread = _unread.computeIfAbsent(product, p -> newSequences());
+			if (unread[type] >= _first) {
+				_prices[position((int) (unread[type] - _first))] = notification.getPrice();
+				return;
+			}
+			unread[type] = _first + _size;
+		}
+
+		if (_size == _capacity)
+			removeOldest();
+		if (_size == _types.length)
+			grow();
+
+		int position = position(_size);
+		_types[position] = (byte) type;
+		_products[position] = product;
+		_prices[position] = notification.getPrice();
+		_size++;
+	}
+
+	/**
+	 * @return the unread notifications, in arrival order.
+	 */
+	synchronized List<Notification> peek() {
+		List<Notification> notifications = new ArrayList<>(_size);
+
+		for (int i = 0; i < _size; i++) {
+			int position = position(i);
+			notifications.add(new Notification(TYPES[_types[position]].name(), _products[position], _prices[position]));
+		}
+
+		return Collections.unmodifiableList(notifications);
+	}
+
+	/**
+	 * Returns the unread notifications and clears the inbox.
+	 *
+	 * @return the notifications, in arrival order.
+	 */
+	synchronized List<Notification> drain() {
+		List<Notification> notifications = new ArrayList<>(peek());
+		clear();
+		return notifications;
+	}
+
+	/**
+	 * Removes all entries and releases the buffers.
+	 */
+	private void clear() {
+		_types = new byte[INITIAL_SIZE];
+		_products = new Product[INITIAL_SIZE];
+		_prices = new double[INITIAL_SIZE];
+		_first += _size;
+		_start = 0;
+		_size = 0;
+		_unread = _coalescing ? new HashMap<>() : null;
+	}
+
+	/**
+	 * Discards the oldest entry.
+	 */
+	private void removeOldest() {
+		if (_coalescing) {
+			long[] unread = _unread.get(_products[_start]);
+			unread[_types[_start]] = -1;
+			if (Arrays.stream(unread).allMatch(sequence -> sequence < 0))
+				_unread.remove(_products[_start]);
+		}
+
+		_products[_start] = null;
+		_start = (_start + 1) % _types.length;
+		_first++;
+		_size--;
+	}
+
+	/**
+	 * Doubles the buffers (up to the capacity), moving the oldest entry to the start.
+	 */
+	private void grow() {
+		int size = (int) Math.min((long) _types.length * 2, _capacity);
+		byte[] types = new byte[size];
+		Product[] products = new Product[size];
+		double[] prices = new double[size];
+
+		for (int i = 0; i < _size; i++) {
+			int position = position(i);
+			types[i] = _types[position];
+			products[i] = _products[position];
+			prices[i] = _prices[position];
+		}
+
+		_types = types;
+		_products = products;
+		_prices = prices;
+		_start = 0;
+	}
+
+	/**
+	 * @param index the entry index, from the oldest.
+	 * @return the entry's position in the buffers.
+	 */
+	private int position(int index) {
+		return (int) (((long) _start + index) % _types.length);
+	}
+
+	/**
+	 * @return sequence numbers of no entry, for each type.
+	 */
+	private static long[] newSequences() {
+		long[] sequences = new long[TYPES.length];
+		Arrays.fill(sequences, -1);
+		return sequences;
+	}
+
+}
@@ -0,0 +1,6 @@
+package ggc.core;
+
+/** Types of product notifications. */
+enum NotificationType {
+	NEW, BARGAIN;
+}
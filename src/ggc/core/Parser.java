@@ -1,11 +1,19 @@
 package ggc.core;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.io.IOException;
-import java.io.StreamTokenizer;
 import java.io.FileReader;
 import java.io.BufferedReader;
-import java.io.Reader;
 
 import ggc.core.exception.BadEntryException;
 import ggc.core.exception.UnknownPartnerException;
@@ -14,12 +22,30 @@ import ggc.core.exception.UnknownProductException;
 
 /**
  * This public class is responsible from parsing an import file.
+ *
+ * The file is read in chunks of lines, which are parsed in parallel and applied
+ * to the warehouse in file order. Entries are applied in two passes over the file:
+ * first all partners, then all batches, so that batches may refer to partners
+ * declared anywhere in the file. Aggregate products are registered after simple
+ * ones, each after the aggregate products in its recipe.
  */
 public class Parser {
 
+	/** Number of lines parsed by each task. */
+	private static final int CHUNK_SIZE = 4096;
+
+	/** Maximum number of chunks being parsed while the next ones are read. */
+	private static final int MAX_PENDING_CHUNKS = 4 * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+
 	/** The warehouse. */
 	private Warehouse _store;
 
+	/** Number of lines in the last parsed file. */
+	private long _lines;
+
+	/** Time taken to import the last parsed file, in nanoseconds. */
+	private long _elapsed;
+
 	/**
 	 * Create a new parser.
 	 *
@@ -29,6 +55,20 @@ public class Parser {
 		_store = w;
 	}
 
+	/**
+	 * @return the number of lines in the last parsed file.
+	 */
+	long getLines() {
+		return _lines;
+	}
+
+	/**
+	 * @return the number of lines imported per second from the last parsed file.
+	 */
+	double getLinesPerSecond() {
+		return (_elapsed > 0) ? _lines * 1e9 / _elapsed : 0;
+	}
+
 	/**
 	 * Parses a file.
 	 *
@@ -40,16 +80,95 @@ public class Parser {
 	 * @throws UnknownProductException
 	 */
 	void parseFile(String filename) throws IOException, BadEntryException, UnknownPartnerException, DuplicatePartnerException, UnknownProductException {
-		try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+		long start = System.nanoTime();
+		List<AggregateBatch> aggregateBatches = new ArrayList<>();
+
+		// Partners first.
+		_lines = 0;
+		parseChunks(filename, true, aggregateBatches);
+
+		// Then batches, leaving aggregate products for last.
+		parseChunks(filename, false, aggregateBatches);
+		applyAggregateBatches(aggregateBatches);
+
+		_elapsed = System.nanoTime() - start;
+	}
+
+	/**
+	 * Reads a file in chunks, parses them in parallel and applies the entries of one pass in order.
+	 *
+	 * @param filename         the filename.
+	 * @param partners         true, to apply partners; false, to apply batches.
+	 * @param aggregateBatches where aggregate batches are kept, to be applied later.
+	 * @throws IOException
+	 * @throws BadEntryException
+	 * @throws UnknownPartnerException
+	 * @throws DuplicatePartnerException
+	 * @throws UnknownProductException
+	 */
+	private void parseChunks(String filename, boolean partners, List<AggregateBatch> aggregateBatches) throws IOException, BadEntryException, UnknownPartnerException, DuplicatePartnerException, UnknownProductException {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		Deque<Future<List<Entry>>> pending = new ArrayDeque<>();
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(filename), 1 << 16)) {
+			String[] lines = new String[CHUNK_SIZE];
+			int count = 0;
 			String line;
 
-			while ((line = reader.readLine()) != null)
-				parseLine(line);
+			while ((line = reader.readLine()) != null) {
+				if (partners)
+					_lines++;
+
+				lines[count++] = line;
+				if (count == CHUNK_SIZE) {
+					String[] chunk = lines;
+					pending.add(pool.submit(() -> parseChunk(chunk, CHUNK_SIZE, partners)));
+					lines = new String[CHUNK_SIZE];
+					count = 0;
+
+					if (pending.size() >= MAX_PENDING_CHUNKS)
+						applyChunk(pending.remove(), aggregateBatches);
+				}
+			}
+
+			if (count > 0) {
+				String[] chunk = lines;
+				int size = count;
+				pending.add(pool.submit(() -> parseChunk(chunk, size, partners)));
+			}
+
+			while (!pending.isEmpty())
+				applyChunk(pending.remove(), aggregateBatches);
+
+		} finally {
+			for (Future<List<Entry>> chunk: pending)
+				chunk.cancel(false);
 		}
 	}
 
 	/**
-	 * Parses a line.
+	 * Parses a chunk of lines, keeping the entries of one pass.
+	 *
+	 * @param lines    the lines.
+	 * @param count    the number of lines.
+	 * @param partners true, to keep partners; false, to keep batches.
+	 * @return the parsed entries, in order.
+	 * @throws BadEntryException
+	 */
+	private static List<Entry> parseChunk(String[] lines, int count, boolean partners) throws BadEntryException {
+		List<Entry> entries = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			Entry entry = parseLine(lines[i], partners);
+			if (entry != null)
+				entries.add(entry);
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Applies the entries of a parsed chunk to the warehouse.
 	 *
 	 * @throws IOException
 	 * @throws BadEntryException
@@ -57,24 +176,54 @@ public class Parser {
 	 * @throws DuplicatePartnerException
 	 * @throws UnknownProductException
 	 */
-	private void parseLine(String line) throws BadEntryException, UnknownPartnerException, DuplicatePartnerException, UnknownProductException {
-		String[] components = line.split("\\|");
+	private void applyChunk(Future<List<Entry>> chunk, List<AggregateBatch> aggregateBatches) throws IOException, BadEntryException, UnknownPartnerException, DuplicatePartnerException, UnknownProductException {
+		List<Entry> entries;
+
+		try {
+			entries = chunk.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Import interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof BadEntryException)
+				throw (BadEntryException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+
+		for (Entry entry: entries) {
+			if (entry instanceof AggregateBatch)
+				aggregateBatches.add((AggregateBatch) entry);
+			else
+				entry.apply(_store);
+		}
+	}
 
-		switch (components[0]) {
+	/**
+	 * Parses a line.
+	 *
+	 * @param line     the line.
+	 * @param partners true, to parse partners; false, to parse batches.
+	 * @return the parsed entry, or null if the line belongs to the other pass.
+	 * @throws BadEntryException
+	 */
+	private static Entry parseLine(String line, boolean partners) throws BadEntryException {
+		String[] components = split(line, '|');
+		String type = (components.length > 0) ? components[0] : "";
+
+		switch (type) {
 			case "PARTNER":
-				parsePartner(components, line);
-				break;
+				return partners ? parsePartner(components, line) : null;
 
 			case "BATCH_S":
-				parseSimpleProduct(components, line);
-				break;
+				return partners ? null : parseSimpleProduct(components, line);
 
 			case "BATCH_M":
-				parseAggregateProduct(components, line);
-				break;
+				return partners ? null : parseAggregateProduct(components, line);
 
 			default:
-				throw new BadEntryException("Invalid type element: " + components[0]);
+				throw new BadEntryException("Invalid type element: " + type);
 		}
 	}
 
@@ -82,9 +231,8 @@ public class Parser {
 	 * Parses a partner.
 	 *
 	 * @throws BadEntryException
-	 * @throws DuplicatePartnerException
 	 */
-	private void parsePartner(String[] components, String line) throws BadEntryException, DuplicatePartnerException {
+	private static Entry parsePartner(String[] components, String line) throws BadEntryException {
 		if (components.length != 4)
 			throw new BadEntryException("Invalid partner with wrong number of fields (4): " + line);
 
@@ -92,17 +240,15 @@ public class Parser {
 		String name = components[2];
 		String address = components[3];
 
-		_store.registerPartner(id, name, address);
+		return store -> store.registerPartner(id, name, address);
 	}
 
 	/**
 	 * Parses a simple product.
 	 *
 	 * @throws BadEntryException
-	 * @throws UnknownPartnerException
-	 * @throws UnknownProductException
 	 */
-	private void parseSimpleProduct(String[] components, String line) throws BadEntryException, UnknownPartnerException, UnknownProductException {
+	private static Entry parseSimpleProduct(String[] components, String line) throws BadEntryException {
 		if (components.length != 5)
 			throw new BadEntryException("Invalid number of fields (4) in simple batch description: " + line);
 
@@ -111,49 +257,208 @@ public class Parser {
 		double price = Double.parseDouble(components[3]);
 		int stock = Integer.parseInt(components[4]);
 
-		if (!_store.isRegisteredProduct(idProduct))
-			_store.registerSimpleProduct(idProduct);
+		return store -> {
+			if (!store.isRegisteredProduct(idProduct))
+				store.registerSimpleProduct(idProduct);
 
-		Product product = _store.getProduct(idProduct);
-		Partner partner = _store.getPartner(idPartner);
+			Product product = store.getProduct(idProduct);
+			Partner partner = store.getPartner(idPartner);
 
-		product.add(stock, partner, price);
+			product.add(stock, partner, price);
+		};
 	}
 
-
 	/**
 	 * Parses a aggregate product.
 	 *
 	 * @throws BadEntryException
-	 * @throws UnknownPartnerException
-	 * @throws UnknownProductException
 	 */
-	private void parseAggregateProduct(String[] components, String line) throws BadEntryException, UnknownPartnerException, UnknownProductException {
+	private static Entry parseAggregateProduct(String[] components, String line) throws BadEntryException {
 		if (components.length != 7)
 			throw new BadEntryException("Invalid number of fields (7) in aggregate batch description: " + line);
 
-		String idProduct = components[1];
-		String idPartner = components[2];
+		String[] recipe = split(components[6], '#');
+		String[] products = new String[recipe.length];
+		int[] quantities = new int[recipe.length];
 
-		if (!_store.isRegisteredProduct(idProduct)) {
-			ArrayList<Product> products = new ArrayList<>();
-			ArrayList<Integer> quantities = new ArrayList<>();
+		for (int i = 0; i < recipe.length; i++) {
+			String[] recipeComponent = split(recipe[i], ':');
+			if (recipeComponent.length != 2)
+				throw new BadEntryException("Invalid recipe component in aggregate batch description: " + line);
 
-			for (String component : components[6].split("#")) {
-				String[] recipeComponent = component.split(":");
-				products.add(_store.getProduct(recipeComponent[0]));
-				quantities.add(Integer.parseInt(recipeComponent[1]));
+			products[i] = recipeComponent[0];
+			quantities[i] = Integer.parseInt(recipeComponent[1]);
+		}
+
+		return new AggregateBatch(components[1], components[2], Double.parseDouble(components[3]),
+			Integer.parseInt(components[4]), Double.parseDouble(components[5]), products, quantities);
+	}
+
+	/**
+	 * Applies aggregate batches, registering each aggregate product after
+	 * the aggregate products in its recipe. Batches of the same product keep
+	 * their order in the file.
+	 *
+	 * @param batches the aggregate batches, in file order.
+	 * @throws UnknownPartnerException
+	 * @throws UnknownProductException
+	 */
+	private void applyAggregateBatches(List<AggregateBatch> batches) throws UnknownPartnerException, UnknownProductException {
+		Map<String, List<AggregateBatch>> batchesByProduct = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		List<String> products = new ArrayList<>();
+
+		for (AggregateBatch batch: batches) {
+			List<AggregateBatch> productBatches = batchesByProduct.get(batch._product);
+			if (productBatches == null) {
+				productBatches = new ArrayList<>();
+				batchesByProduct.put(batch._product, productBatches);
+				products.add(batch._product);
 			}
+			productBatches.add(batch);
+		}
 
-			double aggravation = Double.parseDouble(components[5]);
-			_store.registerAggregateProduct(idProduct, aggravation, products, quantities);
+		Set<String> visited = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+		for (String product: products) {
+			applyAggregateBatches(product, batchesByProduct, visited);
+		}
+	}
+
+	/**
+	 * Applies the batches of an aggregate product, after those of the aggregate products in its recipe.
+	 * Recipes with cycles are left for the warehouse to reject.
+	 *
+	 * @throws UnknownPartnerException
+	 * @throws UnknownProductException
+	 */
+	private void applyAggregateBatches(String product, Map<String, List<AggregateBatch>> batchesByProduct, Set<String> visited) throws UnknownPartnerException, UnknownProductException {
+		if (!visited.add(product))
+			return;
+
+		List<AggregateBatch> productBatches = batchesByProduct.get(product);
+
+		if (!_store.isRegisteredProduct(product)) {
+			for (String component: productBatches.get(0)._components) {
+				if (batchesByProduct.containsKey(component))
+					applyAggregateBatches(component, batchesByProduct, visited);
+			}
+		}
+
+		for (AggregateBatch batch: productBatches) {
+			batch.apply(_store);
+		}
+	}
+
+	/**
+	 * Splits a line into its fields, dropping trailing empty fields
+	 * (as {@link String#split(String)} does).
+	 *
+	 * @param line      the line.
+	 * @param separator the field separator.
+	 * @return the fields.
+	 */
+	static String[] split(String line, char separator) {
+		if (line.isEmpty())
+			return new String[] { line };
+
+		// Ignore trailing separators.
+		int end = line.length();
+		while (end > 0 && line.charAt(end - 1) == separator)
+			end--;
+
+		if (end == 0)
+			return new String[0];
+
+		int count = 1;
+		for (int i = 0; i < end; i++) {
+			if (line.charAt(i) == separator)
+				count++;
+		}
+
+		String[] fields = new String[count];
+		int start = 0;
+		for (int i = 0; i < count - 1; i++) {
+			int next = line.indexOf(separator, start);
+			fields[i] = line.substring(start, next);
+			start = next + 1;
+		}
+		fields[count - 1] = line.substring(start, end);
+
+		return fields;
+	}
+
+	/**
+	 * A parsed line, to be applied to the warehouse.
+	 */
+	private interface Entry {
+
+		/**
+		 * Applies the entry to the warehouse.
+		 *
+		 * @param store the warehouse.
+		 * @throws BadEntryException
+		 * @throws UnknownPartnerException
+		 * @throws DuplicatePartnerException
+		 * @throws UnknownProductException
+		 */
+		void apply(Warehouse store) throws BadEntryException, UnknownPartnerException, DuplicatePartnerException, UnknownProductException;
+
+	}
+
+	/**
+	 * A parsed aggregate batch.
+	 */
+	private static class AggregateBatch implements Entry {
+
+		/** The product's key. */
+		private String _product;
+
+		/** The supplier's key. */
+		private String _partner;
+
+		/** The batch's unit price. */
+		private double _price;
+
+		/** The batch's stock. */
+		private int _stock;
+
+		/** The product's aggravation factor. */
+		private double _aggravation;
+
+		/** The keys of the recipe's components. */
+		private String[] _components;
+
+		/** The quantities of the recipe's components. */
+		private int[] _quantities;
+
+		AggregateBatch(String product, String partner, double price, int stock, double aggravation, String[] components, int[] quantities) {
+			_product = product;
+			_partner = partner;
+			_price = price;
+			_stock = stock;
+			_aggravation = aggravation;
+			_components = components;
+			_quantities = quantities;
+		}
+
+		@Override
+		public void apply(Warehouse store) throws UnknownPartnerException, UnknownProductException {
+			if (!store.isRegisteredProduct(_product)) {
+				ArrayList<Product> products = new ArrayList<>();
+				ArrayList<Integer> quantities = new ArrayList<>();
+
+				for (int i = 0; i < _components.length; i++) {
+					products.add(store.getProduct(_components[i]));
+					quantities.add(_quantities[i]);
+				}
+
+				store.registerAggregateProduct(_product, _aggravation, products, quantities);
+			}
+
+			Product product = store.getProduct(_product);
+			Partner partner = store.getPartner(_partner);
+			product.add(_stock, partner, _price);
 		}
 
-		Product product = _store.getProduct(idProduct);
-		Partner partner = _store.getPartner(idPartner);
-		double price = Double.parseDouble(components[3]);
-		int stock = Integer.parseInt(components[4]);
-		product.add(stock, partner, price);
 	}
 
 }
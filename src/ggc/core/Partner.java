@@ -1,13 +1,20 @@
 package ggc.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 import java.util.Collections;
 import java.util.Collection;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.Objects;
 import java.util.Set;
 import java.util.ArrayList;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * Partners buy and sell products to and from the Warehouse.
@@ -18,6 +25,21 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	/** Serial number for serialization. */
 	private static final long serialVersionUID = 202109192006L;
 
+	/** Fields of a serialized partner, as saved before snapshots were introduced. */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("_key", String.class),
+		new ObjectStreamField("_name", String.class),
+		new ObjectStreamField("_address", String.class),
+		new ObjectStreamField("_status", Status.class),
+		new ObjectStreamField("_acquisitions", Set.class),
+		new ObjectStreamField("_sales", Set.class),
+		new ObjectStreamField("_creditSales", Set.class),
+		new ObjectStreamField("_breakdownSales", Set.class),
+		new ObjectStreamField("_batches", List.class),
+		new ObjectStreamField("_notifications", List.class),
+		new ObjectStreamField("_deliveryMethod", NotificationDeliveryMethod.class),
+	};
+
 	/** The partner's key. */
 	private String _key;
 
@@ -30,10 +52,10 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	/** The partner's status. */
 	private Status _status;
 
-	/** History of all acquisitions transactions. */
+	/** History of all acquisitions transactions (streamed while other threads change it). */
 	private Set<Acquisition> _acquisitions;
 
-	/** History of all sale transactions. */
+	/** History of all sale transactions (streamed while other threads change it). */
 	private Set<Sale> _sales;
 
 	/** History of all credit sale transactions. */
@@ -42,12 +64,30 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	/** History of all breakdown sale transactions. */
 	private Set<BreakdownSale> _breakdownSales;
 
-	/** Collection of all partner's supplied batches. */
-	private List<Batch> _batches;
+	/** Transactions of a snapshot not yet added to the history. */
+	private transient TransactionArchive _archive;
+
+	/** Total value of all acquisitions, used while the history isn't read. */
+	private double _acquisitionsValue;
+
+	/** Total base value of all credit sales, used while the history isn't read. */
+	private double _salesValue;
+
+	/** Total value of all paid credit sales, used while the history isn't read. */
+	private double _paidSalesValue;
 
-	/** Collection of all partner's notifications. */
+	/** All partner's supplied batches, in their natural order (sales of any product may remove them). */
+	private NavigableSet<Batch> _batchIndex;
+
+	/** Partner's unread notifications. */
+	private NotificationInbox _inbox;
+
+	/** Notifications of a serialized partner, until restored. */
 	private List<Notification> _notifications;
 
+	/** Clock of the partner's warehouse. */
+	private transient Clock _clock;
+
 	/** Partner's preferred notification delivery method. */
 	private NotificationDeliveryMethod _deliveryMethod;
 
@@ -63,12 +103,16 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 		_name = name;
 		_address = address;
 		_status = new NormalStatus(this, 0);
-		_acquisitions = new TreeSet<>();
-		_sales = new TreeSet<>();
+		_acquisitions = new ConcurrentSkipListSet<>();
+		_sales = new ConcurrentSkipListSet<>();
 		_creditSales = new TreeSet<>();
 		_breakdownSales = new TreeSet<>();
-		_batches = new ArrayList<>();
-		_notifications = new ArrayList<>();
+		_acquisitionsValue = 0;
+		_salesValue = 0;
+		_paidSalesValue = 0;
+		_batchIndex = new ConcurrentSkipListSet<>();
+		_inbox = new NotificationInbox();
+		_notifications = null;
 		_deliveryMethod = new DefaultNotificationDeliveryMethod();
 	}
 
@@ -93,6 +137,29 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 		return _address;
 	}
 
+	/**
+	 * @return the partner's status.
+	 */
+	Status getStatus() {
+		return _status;
+	}
+
+	/**
+	 * @return the current date of the partner's warehouse.
+	 */
+	int getDate() {
+		return _clock.today();
+	}
+
+	/**
+	 * Sets the clock of the partner's warehouse.
+	 *
+	 * @param clock the warehouse's clock.
+	 */
+	void setClock(Clock clock) {
+		_clock = clock;
+	}
+
 	/**
 	 * Change partner's status.
 	 */
@@ -101,12 +168,10 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	}
 
 	/**
-	 * @return a collection of all partner's supplied batches.
+	 * @return a read-only view of all partner's supplied batches, in their natural order.
 	 */
 	Collection<Batch> getBatches() {
-		List<Batch> copy = new ArrayList<>(_batches);
-		Collections.sort(copy);
-		return copy;
+		return Collections.unmodifiableSet(_batchIndex);
 	}
 
 	/**
@@ -116,6 +181,7 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 */
 	void addTransaction(Acquisition transaction) {
 		_acquisitions.add(transaction);
+		_acquisitionsValue += transaction.getPrice();
 	}
 
 	/**
@@ -125,6 +191,9 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 */
 	void addTransaction(CreditSale transaction) {
 		_creditSales.add(transaction);
+		_salesValue += transaction.getBasePrice();
+		if (transaction.isPaid())
+			_paidSalesValue += transaction.getPrice();
 		_sales.add(transaction);
 	}
 
@@ -142,6 +211,7 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 * @return a collection of all partner's acquisition transactions.
 	 */
 	Collection<Acquisition> getAcquisitionTransactions() {
+		loadHistory();
 		return Collections.unmodifiableSet(_acquisitions);
 	}
 
@@ -149,6 +219,7 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 * @return a collection of all partner's sale transactions.
 	 */
 	Collection<Sale> getSaleTransactions() {
+		loadHistory();
 		return Collections.unmodifiableSet(_sales);
 	}
 
@@ -158,6 +229,8 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	Collection<Sale> getPaidTransactions() {
 		Set<Sale> paidSales = new TreeSet<>();
 
+		loadHistory();
+
 		for (Sale sale: _sales) {
 			if (sale.isPaid()) {
 				paidSales.add(sale);
@@ -167,12 +240,59 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 		return paidSales;
 	}
 
+	/**
+	 * Adds a transaction read from a snapshot to the partner's history.
+	 * The partner's transaction values already account for it.
+	 *
+	 * @param transaction the transaction to add.
+	 */
+	void restoreTransaction(Transaction transaction) {
+		if (transaction instanceof Acquisition) {
+			_acquisitions.add((Acquisition) transaction);
+		} else if (transaction instanceof CreditSale) {
+			_creditSales.add((CreditSale) transaction);
+			_sales.add((CreditSale) transaction);
+		} else if (transaction instanceof BreakdownSale) {
+			_breakdownSales.add((BreakdownSale) transaction);
+			_sales.add((BreakdownSale) transaction);
+		}
+	}
+
+	/**
+	 * Restores the partner's transaction values, leaving its history to be read from a snapshot on demand.
+	 *
+	 * @param archive           the snapshot's transactions.
+	 * @param acquisitionsValue the total value of all acquisitions.
+	 * @param salesValue        the total base value of all credit sales.
+	 * @param paidSalesValue    the total value of all paid credit sales.
+	 */
+	void restoreHistory(TransactionArchive archive, double acquisitionsValue, double salesValue, double paidSalesValue) {
+		_archive = archive;
+		_acquisitionsValue = acquisitionsValue;
+		_salesValue = salesValue;
+		_paidSalesValue = paidSalesValue;
+	}
+
+	/**
+	 * Reads the partner's history from its snapshot, if not read yet.
+	 */
+	void loadHistory() {
+		if (_archive != null) {
+			TransactionArchive archive = _archive;
+			_archive = null;
+			archive.loadPartner(this);
+		}
+	}
+
 	/**
 	 * Calculates the partner's balance on acquisitions.
 	 *
 	 * @return partner's total acquisitions balance.
 	 */
 	double getAcquisitionsValue() {
+		if (_archive != null)
+			return _acquisitionsValue;
+
 		double value = 0;
 
 		for (Acquisition p: _acquisitions) {
@@ -188,6 +308,9 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 * @return partner's total paid sales balance.
 	 */
 	double getPaidSalesValue() {
+		if (_archive != null)
+			return _paidSalesValue;
+
 		double value = 0;
 
 		for (CreditSale s: _creditSales) {
@@ -205,6 +328,9 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 * @return partner's total sales balance.
 	 */
 	double getAllSalesValue() {
+		if (_archive != null)
+			return _salesValue;
+
 		double value = 0;
 
 		for (CreditSale s: _creditSales) {
@@ -220,8 +346,7 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 * @param batch the batch to add.
 	 */
 	void addBatch(Batch b) {
-		_batches.add(b);
-		Collections.sort(_batches);
+		_batchIndex.add(b);
 	}
 
 	/**
@@ -230,8 +355,15 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 * @param batch the batch to remove.
 	 */
 	void removeBatch(Batch b) {
-		_batches.remove(b);
-		Collections.sort(_batches);
+		_batchIndex.remove(b);
+	}
+
+	/**
+	 * Prepares the batch index of a serialized partner
+	 * (the partner's batches are then added by their products).
+	 */
+	private void restoreBatches() {
+		_batchIndex = new ConcurrentSkipListSet<>();
 	}
 
 	/**
@@ -240,6 +372,7 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 * @param transaction the credit sale transaction to pay.
 	 */
 	void payTransaction(CreditSale transaction) {
+		_paidSalesValue += transaction.getPrice();
 		_status.payTransaction(transaction);
 	}
 
@@ -253,6 +386,17 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 		return _status.getTransactionPrice(transaction);
 	}
 
+	/**
+	 * Determines the next date in which the credit sale price may change, based on the partner's classification.
+	 *
+	 * @param transaction the credit sale.
+	 * @param date        the current date.
+	 * @return the next date in which the credit sale should be repriced ({@link Status#NEVER}, if its price is final).
+	 */
+	int getNextPriceChange(CreditSale transaction, int date) {
+		return _status.getNextPriceChange(transaction, date);
+	}
+
 	/**
 	 * Processes the payment of a breakdown sale transaction.
 	 *
@@ -262,6 +406,15 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 		_status.payTransaction(transaction);
 	}
 
+	/**
+	 * Changes the partner's preferred notification delivery method.
+	 *
+	 * @param method the new delivery method.
+	 */
+	void setDeliveryMethod(NotificationDeliveryMethod method) {
+		_deliveryMethod = method;
+	}
+
 	/**
 	 * Updates the partner's notifications with a new one.
 	 *
@@ -269,8 +422,31 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 */
 	@Override
 	public void updateNotifications(Notification notification) {
-		_notifications.add(notification);
-		_deliveryMethod.deliverNotification(notification);
+		addNotification(notification);
+		_deliveryMethod.deliverNotification(this, notification);
+	}
+
+	/**
+	 * Adds a notification to the partner's collection, without delivering it.
+	 *
+	 * @param notification the notification to add.
+	 */
+	void addNotification(Notification notification) {
+		_inbox.add(notification);
+	}
+
+	/**
+	 * @return the number of unread notifications.
+	 */
+	int countUnreadNotifications() {
+		return _inbox.size();
+	}
+
+	/**
+	 * @return the partner's collection of notifications, without clearing them.
+	 */
+	Collection<Notification> getUnreadNotifications() {
+		return _inbox.peek();
 	}
 
 	/**
@@ -280,10 +456,97 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
 	 * @return the partner's collection of notifications.
 	 */
 	Collection<Notification> getNotifications() {
-		Collection<Notification> copy = new ArrayList<>(_notifications);
-		_notifications.clear();
+		return _inbox.drain();
+	}
+
+	/**
+	 * Changes the limits of the partner's inbox.
+	 *
+	 * @param capacity   the maximum number of unread notifications kept (the oldest are discarded).
+	 * @param coalescing whether a notification of the same type and product as an unread one replaces it.
+	 */
+	void configureInbox(int capacity, boolean coalescing) {
+		_inbox.configure(capacity, coalescing);
+	}
+
+	/**
+	 * @return the maximum number of unread notifications kept.
+	 */
+	int getInboxCapacity() {
+		return _inbox.getCapacity();
+	}
 
-		return copy;
+	/**
+	 * @return true, if the partner's inbox coalesces notifications; false, otherwise.
+	 */
+	boolean isInboxCoalescing() {
+		return _inbox.isCoalescing();
+	}
+
+	/**
+	 * Moves the notifications of a serialized partner into an inbox.
+	 */
+	private void restoreNotifications() {
+		_inbox = new NotificationInbox();
+		for (Notification notification: _notifications) {
+			_inbox.add(notification);
+		}
+		_notifications = null;
+	}
+
+	/**
+	 * Saves the partner with Java serialization, as it was saved before snapshots
+	 * were introduced. Its history must have been read.
+	 * Delivery methods aren't kept, as in snapshots.
+	 *
+	 * @param out the stream to write to.
+	 * @throws IOException if the partner can't be written.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+
+		fields.put("_key", _key);
+		fields.put("_name", _name);
+		fields.put("_address", _address);
+		fields.put("_status", _status);
+		fields.put("_acquisitions", new TreeSet<>(_acquisitions));
+		fields.put("_sales", new TreeSet<>(_sales));
+		fields.put("_creditSales", new TreeSet<>(_creditSales));
+		fields.put("_breakdownSales", new TreeSet<>(_breakdownSales));
+		fields.put("_batches", new ArrayList<>(_batchIndex));
+		fields.put("_notifications", new ArrayList<>(_inbox.peek()));
+		fields.put("_deliveryMethod", new DefaultNotificationDeliveryMethod());
+		out.writeFields();
+	}
+
+	/**
+	 * Restores a serialized partner.
+	 * Its batches and notifications are restored once the whole stream has been read,
+	 * before those of its products, which add batches to it.
+	 *
+	 * @param in the stream to read from.
+	 * @throws IOException            if the partner can't be read.
+	 * @throws ClassNotFoundException if a serialized class is unknown.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+
+		_key = (String) fields.get("_key", null);
+		_name = (String) fields.get("_name", null);
+		_address = (String) fields.get("_address", null);
+		_status = (Status) fields.get("_status", null);
+		_acquisitions = (Set<Acquisition>) fields.get("_acquisitions", null);
+		_sales = (Set<Sale>) fields.get("_sales", null);
+		_creditSales = (Set<CreditSale>) fields.get("_creditSales", null);
+		_breakdownSales = (Set<BreakdownSale>) fields.get("_breakdownSales", null);
+		_notifications = (List<Notification>) fields.get("_notifications", null);
+		_deliveryMethod = (NotificationDeliveryMethod) fields.get("_deliveryMethod", null);
+
+		in.registerValidation(() -> {
+			restoreBatches();
+			restoreNotifications();
+		}, 1);
 	}
 
 	/**
@@ -297,8 +560,19 @@ public class Partner implements Comparable<Partner>, Notifiable, Serializable {
   	/** @see java.lang.Object#equals(java.lang.Object) */
 	@Override
 	public boolean equals(Object other) {
-		return (other instanceof Partner) &&
-			_key.equals(((Partner) other).getKey());
+		return (this == other) || ((other instanceof Partner) &&
+			_key != null && _key.equals(((Partner) other).getKey()));
+	}
+
+	/**
+	 * Hashes partners by id, like {@link #equals(Object)}. A partner may be hashed
+	 * and compared while it is read, before its id is, so the id may still be missing.
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(_key);
 	}
 
 	/**
@@ -1,13 +1,21 @@
 package ggc.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.TreeSet;
 
 import ggc.core.exception.NoProductStockException;
 
@@ -22,6 +30,15 @@ public abstract class Product implements Comparable<Product>, Serializable {
 	/** Serial number for serialization. */
 	private static final long serialVersionUID = 202109192006L;
 
+	/** Fields of a serialized product, as saved before snapshots were introduced. */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("_key", String.class),
+		new ObjectStreamField("_maxPrice", double.class),
+		new ObjectStreamField("_new", boolean.class),
+		new ObjectStreamField("_batches", List.class),
+		new ObjectStreamField("_notifiables", Set.class),
+	};
+
 	/** The product's identifier. */
 	private String _key;
 
@@ -31,11 +48,32 @@ public abstract class Product implements Comparable<Product>, Serializable {
 	/** Determines if a product has been recently added. */
 	private boolean _new;
 
-	/** Collection of batches that hold the product. */
-	private List<Batch> _batches;
+	/** Batches that hold the product, sorted by price. */
+	private NavigableSet<Batch> _batches;
+
+	/** The cheapest batch (null, if there are no batches). */
+	private Batch _cheapest;
+
+	/** The batch of each partner and price, where new units of that partner and price go (rebuilt when loaded). */
+	private transient Map<BatchKey, Batch> _batchesBySupply;
+
+	/** Identifier of the next batch. */
+	private int _nextBatchId;
+
+	/** Number of units held by all batches. */
+	private int _stock;
+
+	/** Stock of the warehouse the product belongs to (null, if none). */
+	private Inventory _inventory;
+
+	/** Batches of a serialized product, until restored. */
+	private transient List<Batch> _savedBatches;
+
+	/** Entities not interested in being notified (all others are). */
+	private Set<Notifiable> _optOuts;
 
-	/** Collection of all entities interested in being notified. */
-	private Set<Notifiable> _notifiables;
+	/** Entities interested in being notified, of a serialized product, until saved or restored. */
+	private transient Set<Notifiable> _savedNotifiables;
 
 	/**
 	 * @param key the product identifier.
@@ -47,8 +85,13 @@ public abstract class Product implements Comparable<Product>, Serializable {
 		// When created a product is new.
 		_new = true;
 
-		_batches = new ArrayList<>();
-		_notifiables = new HashSet<>();
+		_batches = new TreeSet<>(Batch.getComparatorByPrice());
+		_cheapest = null;
+		_batchesBySupply = new HashMap<>();
+		_nextBatchId = 0;
+		_stock = 0;
+		_inventory = null;
+		_optOuts = new HashSet<>();
 	}
 
 	/**
@@ -65,6 +108,18 @@ public abstract class Product implements Comparable<Product>, Serializable {
 		return _maxPrice;
 	}
 
+	/**
+	 * Restores the state of a previously saved product.
+	 * Batches are added afterwards.
+	 *
+	 * @param maxPrice the product's all time highest price.
+	 * @param isNew    whether the product has been recently added.
+	 */
+	final void restore(double maxPrice, boolean isNew) {
+		_maxPrice = maxPrice;
+		_new = isNew;
+	}
+
 	/**
 	 * Determines if a product has been recently added.
 	 *
@@ -78,7 +133,7 @@ public abstract class Product implements Comparable<Product>, Serializable {
 	 * @return the lowest price available for the product.
 	 */
 	final double getLowestPrice() {
-		return (_batches.size() > 0) ? _batches.get(0).getPrice() : 0;
+		return (_cheapest != null) ? _cheapest.getPrice() : 0;
 	}
 
 	/**
@@ -94,13 +149,34 @@ public abstract class Product implements Comparable<Product>, Serializable {
 	 * @return the available stock product.
 	 */
 	final int getStock() {
-		int stock = 0;
+		return _stock;
+	}
+
+	/**
+	 * Makes the product account its stock in the warehouse's inventory, and index its batches there.
+	 *
+	 * @param inventory the warehouse's inventory.
+	 */
+	final void setInventory(Inventory inventory) {
+		_inventory = inventory;
 
-		for (Batch b: _batches) {
-			stock += b.getStock();
+		for (Batch batch: _batches) {
+			inventory.update(batch.getStock(), batch.getPrice());
 		}
+		inventory.addBatches(_batches);
+	}
 
-		return stock;
+	/**
+	 * Records a change in the stock of one of the product's batches.
+	 *
+	 * @param units the number of units added (negative, if drawn).
+	 * @param price the batch unit price.
+	 */
+	private void updateStock(int units, double price) {
+		_stock += units;
+
+		if (_inventory != null)
+			_inventory.update(units, price);
 	}
 
 	/**
@@ -126,11 +202,6 @@ public abstract class Product implements Comparable<Product>, Serializable {
 	 */
 	abstract void checkAggregation(int amount) throws NoProductStockException;
 
-	/**
-	 * Aggregates the product.
-	 */
-	abstract void aggregate();
-
 	/**
 	 * Determines if a product can be disaggregated.
 	 * Aggregate products can always be disaggregated.
@@ -149,6 +220,13 @@ public abstract class Product implements Comparable<Product>, Serializable {
 	 */
 	abstract double disaggregate(int amount, Partner partner);
 
+	/**
+	 * @return the number of batches that hold the product.
+	 */
+	final int countBatches() {
+		return _batches.size();
+	}
+
 	/**
 	 * @return a collection of batches sorted by their natural order.
 	 */
@@ -158,6 +236,13 @@ public abstract class Product implements Comparable<Product>, Serializable {
 		return batches;
 	}
 
+	/**
+	 * @return a read-only view of the batches, sorted by price.
+	 */
+	final Collection<Batch> getBatchesByPrice() {
+		return Collections.unmodifiableSet(_batches);
+	}
+
 	/**
 	 * Returns a collection of all batches under the specified price.
 	 *
@@ -183,8 +268,15 @@ public abstract class Product implements Comparable<Product>, Serializable {
 	 */
 	final void addBatch(Batch batch) {
 		batch.getPartner().addBatch(batch);
+		getBatchesBySupply().putIfAbsent(new BatchKey(batch.getPartner(), batch.getPrice()), batch);
 		_batches.add(batch);
-		Collections.sort(_batches, Batch.getComparatorByPrice());
+		updateStock(batch.getStock(), batch.getPrice());
+
+		if (_inventory != null)
+			_inventory.addBatch(batch);
+
+		if (_cheapest == null || _batches.comparator().compare(batch, _cheapest) < 0)
+			_cheapest = batch;
 	}
 
 	/**
@@ -194,8 +286,65 @@ public abstract class Product implements Comparable<Product>, Serializable {
 	 */
 	final void removeBatch(Batch batch) {
 		batch.getPartner().removeBatch(batch);
+		getBatchesBySupply().remove(new BatchKey(batch.getPartner(), batch.getPrice()), batch);
 		_batches.remove(batch);
-		Collections.sort(_batches, Batch.getComparatorByPrice());
+		updateStock(-batch.getStock(), batch.getPrice());
+
+		if (_inventory != null)
+			_inventory.removeBatch(batch);
+
+		if (batch == _cheapest)
+			_cheapest = _batches.isEmpty() ? null : _batches.first();
+	}
+
+	/**
+	 * @return the batch of each partner and price.
+	 */
+	private Map<BatchKey, Batch> getBatchesBySupply() {
+		if (_batchesBySupply == null) {
+			_batchesBySupply = new HashMap<>();
+			for (Batch batch: _batches) {
+				_batchesBySupply.putIfAbsent(new BatchKey(batch.getPartner(), batch.getPrice()), batch);
+			}
+		}
+		return _batchesBySupply;
+	}
+
+	/**
+	 * Merges batches with the same partner and price into the earliest of them,
+	 * as kept by files saved before units were added to existing batches.
+	 */
+	final void compactBatches() {
+		Map<BatchKey, Batch> batchesBySupply = new HashMap<>();
+		List<Batch> merged = new ArrayList<>();
+
+		// Batches with the same partner and price are in order of arrival.
+		for (Batch batch: _batches) {
+			Batch earliest = batchesBySupply.putIfAbsent(new BatchKey(batch.getPartner(), batch.getPrice()), batch);
+			if (earliest != null) {
+				earliest.add(batch.getStock());
+				merged.add(batch);
+			}
+		}
+
+		// The units merged stay in stock, at the same price.
+		for (Batch batch: merged) {
+			batch.getPartner().removeBatch(batch);
+			_batches.remove(batch);
+
+			if (_inventory != null)
+				_inventory.removeBatch(batch);
+		}
+
+		_batchesBySupply = batchesBySupply;
+		_cheapest = _batches.isEmpty() ? null : _batches.first();
+	}
+
+	/**
+	 * @return the identifier for a new batch of the product.
+	 */
+	final int nextBatchId() {
+		return _nextBatchId++;
 	}
 
 	/**
@@ -214,10 +363,17 @@ public abstract class Product implements Comparable<Product>, Serializable {
 		if (price > _maxPrice)
 			_maxPrice = price;
 
-		// Add to new batch.
-		Batch batch = new Batch(this, partner, price);
-		addBatch(batch);
+		// Add to the partner's batch at that price, if any, or to a new batch.
+		Batch batch = getBatchesBySupply().get(new BatchKey(partner, price));
+		if (batch != null) {
+			batch.add(units);
+			updateStock(units, price);
+			return;
+		}
+
+		batch = new Batch(this, partner, price);
 		batch.add(units);
+		addBatch(batch);
 	}
 
 	/**
@@ -227,70 +383,180 @@ public abstract class Product implements Comparable<Product>, Serializable {
 	 * @return the total price of the units removed.
 	 */
 	final double remove(int units) {
-		Batch batch = null;
-		double total = 0;
-		int removed = 0;
+		return draw(units).getPrice();
+	}
+
+	/**
+	 * Draws units from the batches, cheapest first.
+	 * Each batch is drawn from in a single step and removed once empty.
+	 *
+	 * @param units the number of units to draw.
+	 * @return the units drawn and their price (none, if there isn't enough stock).
+	 */
+	final Drawdown draw(int units) {
+		Drawdown drawdown = new Drawdown();
+		int remaining = units;
 
 		// Impossible operation.
 		if (units > getStock())
-			return total;
+			return drawdown;
 
-		// Remove unit by unit.
-		while (removed < units) {
-			batch = _batches.get(0);
+		while (remaining > 0) {
+			Batch batch = _cheapest;
+			int drawn = Math.min(remaining, batch.getStock());
 
-			while (batch.remove(1)) {
-				removed++;
-				total += batch.getPrice();
-				if (removed == units)
-					break;
-			}
-			if (batch.getStock() == 0)
+			batch.remove(drawn);
+			updateStock(-drawn, batch.getPrice());
+			drawdown.record(batch, drawn);
+			remaining -= drawn;
+
+			if (batch.isEmpty())
 				removeBatch(batch);
 		}
 
-		return total;
+		return drawdown;
 	}
 
 	/**
 	 * Determines if the notifiable is registered.
+	 * Notifiables are registered unless they opted out.
 	 *
 	 * @param notifiable the notifiable.
 	 */
 	final boolean isRegisteredNotifiable(Notifiable notifiable) {
-		return _notifiables.contains(notifiable);
+		return !_optOuts.contains(notifiable);
 	}
 
+	/**
+	 * @return a read-only view of the notifiables not interested in being notified.
+	 */
+	final Set<Notifiable> getOptOuts() {
+		return Collections.unmodifiableSet(_optOuts);
+	}
 
 	/**
-	 * Adds a notifiable to the product's collection.
+	 * Registers a notifiable as interested in being notified.
 	 *
 	 * @param notifiable the notifiable to add.
 	 */
 	final void addNotifiable(Notifiable notifiable) {
-		_notifiables.add(notifiable);
+		_optOuts.remove(notifiable);
 	}
 
 	/**
-	 * Removes a notifiable from the product's collection.
+	 * Registers a notifiable as not interested in being notified.
 	 *
 	 * @param notifiable the notifiable to remove.
 	 */
 	final void removeNotifiable(Notifiable notifiable) {
-		_notifiables.remove(notifiable);
+		_optOuts.add(notifiable);
 	}
 
 	/**
 	 * Sends a notification to all subscribed notifiables.
 	 *
 	 * @param notification the notification to send.
+	 * @param audience     the notifiables that may be interested.
 	 */
-	final void sendNotification(Notification notification) {
-		for (Notifiable notifiable: _notifiables) {
-			notifiable.updateNotifications(notification);
+	final void sendNotification(Notification notification, Collection<? extends Notifiable> audience) {
+		for (Notifiable notifiable: audience) {
+			if (!_optOuts.contains(notifiable))
+				notifiable.updateNotifications(notification);
 		}
 	}
 
+	/**
+	 * Finds which entities are interested in being notified, as products were saved
+	 * with those before snapshots were introduced, until the product is serialized.
+	 *
+	 * @param notifiables all entities that may be interested.
+	 */
+	final void saveNotifiables(Collection<? extends Notifiable> notifiables) {
+		_savedNotifiables = new HashSet<>();
+		for (Notifiable notifiable: notifiables) {
+			if (!_optOuts.contains(notifiable))
+				_savedNotifiables.add(notifiable);
+		}
+	}
+
+	/**
+	 * Saves the product with Java serialization, as it was saved before snapshots
+	 * were introduced, with the entities found by {@link #saveNotifiables(Collection)}.
+	 *
+	 * @param out the stream to write to.
+	 * @throws IOException if the product can't be written.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+
+		fields.put("_key", _key);
+		fields.put("_maxPrice", _maxPrice);
+		fields.put("_new", _new);
+		fields.put("_batches", new ArrayList<>(_batches));
+		fields.put("_notifiables", _savedNotifiables);
+		out.writeFields();
+
+		_savedNotifiables = null;
+	}
+
+	/**
+	 * Restores a serialized product.
+	 * Its list of batches is restored once the whole stream has been read, and its
+	 * interested entities are kept until {@link #restoreOptOuts(Collection)}.
+	 *
+	 * @param in the stream to read from.
+	 * @throws IOException            if the product can't be read.
+	 * @throws ClassNotFoundException if a serialized class is unknown.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+
+		_key = (String) fields.get("_key", null);
+		_maxPrice = fields.get("_maxPrice", 0.0);
+		_new = fields.get("_new", false);
+		_savedNotifiables = (Set<Notifiable>) fields.get("_notifiables", null);
+
+		// Sorting needs the partners, which may not be fully read yet.
+		_batches = new TreeSet<>(Batch.getComparatorByPrice());
+		_savedBatches = (List<Batch>) fields.get("_batches", null);
+		in.registerValidation(this::restoreBatches, 0);
+	}
+
+	/**
+	 * Sorts the batches of a product saved with a list of batches, counts their stock
+	 * and adds them to their partners.
+	 */
+	private void restoreBatches() {
+		for (Batch batch: _savedBatches) {
+			batch.setId(nextBatchId());
+			batch.getPartner().addBatch(batch);
+			_batches.add(batch);
+			_stock += batch.getStock();
+		}
+
+		_cheapest = _batches.isEmpty() ? null : _batches.first();
+		_savedBatches = null;
+	}
+
+	/**
+	 * Finds which entities aren't interested in being notified,
+	 * for a product saved with those that are.
+	 *
+	 * @param notifiables all entities that may be interested.
+	 */
+	final void restoreOptOuts(Collection<? extends Notifiable> notifiables) {
+		// The saved set was filled while its entities were still being read: hash them again.
+		Set<Notifiable> interested = new HashSet<>(_savedNotifiables);
+		_optOuts = new HashSet<>();
+		for (Notifiable notifiable: notifiables) {
+			if (!interested.contains(notifiable))
+				_optOuts.add(notifiable);
+		}
+
+		_savedNotifiables = null;
+	}
+
 	/**
 	 * Compares products by their key.
 	 */
@@ -305,4 +571,41 @@ public abstract class Product implements Comparable<Product>, Serializable {
 		return "" + _key + "|" + Math.round(_maxPrice) + "|" + getStock();
 	}
 
+	/**
+	 * The partner and unit price of a batch: units of the product with the
+	 * same partner and price are kept in a single batch.
+	 */
+	private static class BatchKey {
+
+		/** The partner who supplies the units. */
+		private final Partner _partner;
+
+		/** The unit price, as the supplier entered it. */
+		private final double _price;
+
+		/**
+		 * @param partner the partner who supplies the units.
+		 * @param price   the unit price.
+		 */
+		private BatchKey(Partner partner, double price) {
+			_partner = partner;
+			_price = price;
+		}
+
+		/** @see java.lang.Object#equals(java.lang.Object) */
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof BatchKey &&
+				_partner.equals(((BatchKey) other)._partner) &&
+				Double.compare(_price, ((BatchKey) other)._price) == 0;
+		}
+
+		/** @see java.lang.Object#hashCode() */
+		@Override
+		public int hashCode() {
+			return 31 * _partner.hashCode() + Double.hashCode(_price);
+		}
+
+	}
+
 }
@@ -0,0 +1,156 @@
+package ggc.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class keeps track of the value of all unpaid credit sales.
+ * The value of each sale is recorded when the sale is registered and
+ * updated whenever its price changes, so that the total amount owed to
+ * the warehouse is always available without going through every transaction.
+ * The ledger is shared by sales of all partners, so its methods are synchronized.
+ */
+class ReceivablesLedger {
+
+	/** Maximum accepted drift between the running total and a full scan. */
+	private static final double TOLERANCE = 1e-6;
+
+	/** Running total of the value of all unpaid credit sales. */
+	private double _total;
+
+	/** Last recorded value of each unpaid credit sale. */
+	private Map<CreditSale, Double> _values;
+
+	/** Unpaid credit sales, grouped by partner. */
+	private Map<Partner, Set<CreditSale>> _salesByPartner;
+
+	/**
+	 * Creates a new, empty, ledger.
+	 */
+	ReceivablesLedger() {
+		_total = 0;
+		_values = new HashMap<>();
+		_salesByPartner = new TreeMap<>();
+	}
+
+	/**
+	 * @return the total value of all unpaid credit sales.
+	 */
+	synchronized double getTotal() {
+		return _total;
+	}
+
+	/**
+	 * @param partner the partner.
+	 * @return a copy of the partner's unpaid credit sales.
+	 */
+	synchronized Collection<CreditSale> getUnpaidSales(Partner partner) {
+		Set<CreditSale> sales = _salesByPartner.get(partner);
+		return (sales != null) ? new ArrayList<>(sales) : new ArrayList<>();
+	}
+
+	/**
+	 * @return the number of unpaid credit sales.
+	 */
+	synchronized int countUnpaidSales() {
+		return _values.size();
+	}
+
+	/**
+	 * Records a new unpaid credit sale.
+	 *
+	 * @param sale the credit sale to record.
+	 */
+	synchronized void register(CreditSale sale) {
+		if (sale.isPaid() || _values.containsKey(sale))
+			return;
+
+		double value = sale.getPrice();
+		_values.put(sale, value);
+		_total += value;
+
+		Set<CreditSale> sales = _salesByPartner.get(sale.getPartner());
+		if (sales == null) {
+			sales = new TreeSet<>();
+			_salesByPartner.put(sale.getPartner(), sales);
+		}
+		sales.add(sale);
+	}
+
+	/**
+	 * Updates the recorded value of an unpaid credit sale to its current price.
+	 *
+	 * @param sale the credit sale to update.
+	 */
+	synchronized void reprice(CreditSale sale) {
+		Double previous = _values.get(sale);
+		if (previous == null)
+			return;
+
+		double value = sale.getPrice();
+		_values.put(sale, value);
+		_total += value - previous;
+	}
+
+	/**
+	 * Updates the recorded value of all the partner's unpaid credit sales.
+	 * Needed whenever the partner's status changes.
+	 *
+	 * @param partner the partner whose sales should be updated.
+	 */
+	synchronized void reprice(Partner partner) {
+		Set<CreditSale> sales = _salesByPartner.get(partner);
+		if (sales == null)
+			return;
+
+		for (CreditSale sale: sales) {
+			reprice(sale);
+		}
+	}
+
+	/**
+	 * Removes a credit sale from the ledger, before it gets paid.
+	 *
+	 * @param sale the credit sale to remove.
+	 */
+	synchronized void settle(CreditSale sale) {
+		Double previous = _values.remove(sale);
+		if (previous == null)
+			return;
+
+		_total -= previous;
+
+		Set<CreditSale> sales = _salesByPartner.get(sale.getPartner());
+		sales.remove(sale);
+		if (sales.isEmpty())
+			_salesByPartner.remove(sale.getPartner());
+	}
+
+	/**
+	 * Checks the running total against a full scan of the given transactions.
+	 * Meant for debugging only, since it visits every transaction.
+	 *
+	 * @param transactions all the warehouse's transactions.
+	 * @return true, if the ledger agrees with the transactions; false, otherwise.
+	 */
+	synchronized boolean isConsistent(Collection<Transaction> transactions) {
+		double notPaidValue = 0;
+		int notPaid = 0;
+
+		for (Transaction transaction: transactions) {
+			if (!transaction.isPaid()) {
+				notPaidValue += transaction.getPrice();
+				notPaid++;
+			}
+		}
+
+		return notPaid == _values.size() &&
+			Math.abs(notPaidValue - _total) <= TOLERANCE * Math.max(1, Math.abs(notPaidValue));
+	}
+
+}
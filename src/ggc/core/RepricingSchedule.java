@@ -0,0 +1,149 @@
+package ggc.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * This class indexes unpaid credit sales by the next date in which their price
+ * may change. When time moves forward, only the sales whose price can actually
+ * change need to be repriced; sales whose price is final aren't indexed at all.
+ * A sale is indexed again when its partner's classification changes, since the
+ * dates in which its price changes depend on it.
+ */
+class RepricingSchedule {
+
+	/** Scheduled credit sales, ordered by their next repricing date (with outdated entries). */
+	private PriorityQueue<Entry> _entries;
+
+	/** Next repricing date of each scheduled credit sale. */
+	private Map<CreditSale, Integer> _dates;
+
+	/**
+	 * Creates a new, empty, schedule.
+	 */
+	RepricingSchedule() {
+		_entries = new PriorityQueue<>();
+		_dates = new HashMap<>();
+	}
+
+	/**
+	 * @return the number of scheduled credit sales.
+	 */
+	synchronized int size() {
+		return _dates.size();
+	}
+
+	/**
+	 * Schedules an unpaid credit sale for repricing, replacing its previous repricing date.
+	 *
+	 * @param sale the credit sale.
+	 * @param date the current date.
+	 */
+	synchronized void schedule(CreditSale sale, int date) {
+		int next = sale.isPaid() ? Status.NEVER : sale.getPartner().getNextPriceChange(sale, date);
+
+		if (next == Status.NEVER) {
+			_dates.remove(sale);
+		} else {
+			Integer previous = _dates.put(sale, next);
+			if (previous == null || previous != next)
+				_entries.add(new Entry(next, sale));
+		}
+	}
+
+	/**
+	 * Schedules unpaid credit sales again, after their partner's classification changed.
+	 *
+	 * @param sales the credit sales.
+	 * @param date  the current date.
+	 */
+	synchronized void reschedule(Collection<CreditSale> sales, int date) {
+		for (CreditSale sale: sales) {
+			schedule(sale, date);
+		}
+	}
+
+	/**
+	 * Collects all unpaid credit sales whose price may have changed up to the given date.
+	 * The collected sales are scheduled again, and paid sales are dropped from the schedule.
+	 *
+	 * @param date the new current date.
+	 * @return the credit sales which must be repriced.
+	 */
+	synchronized Collection<CreditSale> advance(int date) {
+		List<CreditSale> due = new ArrayList<>();
+
+		while (!_entries.isEmpty() && _entries.peek().getDate() <= date) {
+			Entry entry = _entries.poll();
+			CreditSale sale = entry.getSale();
+
+			// Entries replaced by a later schedule are outdated.
+			Integer scheduled = _dates.get(sale);
+			if (scheduled == null || scheduled != entry.getDate())
+				continue;
+
+			_dates.remove(sale);
+			if (!sale.isPaid()) {
+				due.add(sale);
+			}
+		}
+
+		for (CreditSale sale: due) {
+			schedule(sale, date);
+		}
+
+		return due;
+	}
+
+	/**
+	 * A credit sale along with its next repricing date.
+	 */
+	private static class Entry implements Comparable<Entry> {
+
+		/** The next date in which the sale should be repriced. */
+		private int _date;
+
+		/** The credit sale. */
+		private CreditSale _sale;
+
+		/**
+		 * @param date the next repricing date.
+		 * @param sale the credit sale.
+		 */
+		private Entry(int date, CreditSale sale) {
+			_date = date;
+			_sale = sale;
+		}
+
+		/**
+		 * @return the next repricing date.
+		 */
+		private int getDate() {
+			return _date;
+		}
+
+		/**
+		 * @return the credit sale.
+		 */
+		private CreditSale getSale() {
+			return _sale;
+		}
+
+		/**
+		 * Compares entries by date, then by the sale's key.
+		 */
+		@Override
+		public int compareTo(Entry other) {
+			if (_date != other._date)
+				return Integer.compare(_date, other._date);
+
+			return _sale.compareTo(other._sale);
+		}
+
+	}
+
+}
@@ -5,6 +5,9 @@ package ggc.core;
  */
 public class SelectionStatus extends Status {
 
+	/** Serial number for serialization, as computed for files saved before it was declared. */
+	private static final long serialVersionUID = 4580269101847720285L;
+
 	/**
 	 * Creates a new selection status.
 	 */
@@ -65,6 +68,27 @@ public class SelectionStatus extends Status {
 		return price;
 	}
 
+	/**
+	 * The price is the same all through the 1st period, changes when the 2nd
+	 * period starts and two days before the deadline, and every day from
+	 * the second day after the deadline.
+	 *
+	 * @param timeDelay the current payment delay.
+	 * @param nFactor   the product's time factor.
+	 */
+	int getNextPriceChangeDelay(int timeDelay, int nFactor) {
+		if (timeDelay < -nFactor + 1)
+			return -nFactor + 1;
+
+		if (timeDelay < -1)
+			return -1;
+
+		if (timeDelay < 2)
+			return 2;
+
+		return timeDelay + 1;
+	}
+
 	/**
 	 * Applies the punctuation penalties, according to the payment time delay.
 	 *
@@ -0,0 +1,158 @@
+package ggc.core;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the operations of a warehouse manager on shards of its products.
+ *
+ * Simple products are hash-partitioned by key across the shards, and aggregate
+ * products go to the shard of all the products in their recipe. Each shard has a
+ * single thread, which makes all the changes to its products, so changes to
+ * products of different shards proceed in parallel. An aggregate product whose
+ * recipe spans several shards is coordinated: its operations run in the calling
+ * thread, holding the locks of every product involved.
+ */
+class ShardedEngine {
+
+	/** Shard of the products whose operations are coordinated across shards. */
+	static final int COORDINATED = -1;
+
+	/** Engine of the current thread, if it's a shard thread. */
+	private static final ThreadLocal<ShardedEngine> CURRENT = new ThreadLocal<>();
+
+	/** Single thread executor of each shard. */
+	private final ExecutorService[] _shards;
+
+	/** Shard of each product seen. */
+	private final Map<Product, Integer> _assignment;
+
+	/**
+	 * Creates the shards, with their threads.
+	 *
+	 * @param shards the number of shards.
+	 */
+	ShardedEngine(int shards) {
+		if (shards < 1)
+			throw new IllegalArgumentException("number of shards must be positive: " + shards);
+
+		_shards = new ExecutorService[shards];
+		_assignment = new ConcurrentHashMap<>();
+
+		for (int i = 0; i < shards; i++) {
+			String name = "warehouse-shard-" + i;
+			_shards[i] = Executors.newSingleThreadExecutor(task -> {
+				Thread thread = new Thread(() -> {
+					CURRENT.set(this);
+					task.run();
+				}, name);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * @return the number of shards.
+	 */
+	int getShards() {
+		return _shards.length;
+	}
+
+	/**
+	 * @return true, if the current thread is one of the shard threads; false, otherwise.
+	 */
+	boolean isShardThread() {
+		return CURRENT.get() == this;
+	}
+
+	/**
+	 * Returns the shard of a product: the shard of its key, for simple products, or the
+	 * shard of all the products in its recipe, for aggregate products.
+	 *
+	 * @param product the product.
+	 * @return the product's shard, or {@link #COORDINATED} if its recipe spans several shards.
+	 */
+	int shardOf(Product product) {
+		Integer shard = _assignment.get(product);
+		if (shard == null) {
+			shard = assign(product);
+			_assignment.put(product, shard);
+		}
+		return shard;
+	}
+
+	/**
+	 * @param product the product.
+	 * @return the product's shard.
+	 */
+	private int assign(Product product) {
+		Iterator<Product> components = product.getProductIterator();
+		if (!components.hasNext())
+			return Math.floorMod(product.getKey().toLowerCase().hashCode(), _shards.length);
+
+		int shard = shardOf(components.next());
+		while (components.hasNext()) {
+			if (shardOf(components.next()) != shard)
+				return COORDINATED;
+		}
+		return shard;
+	}
+
+	/**
+	 * Forgets the products seen, when another warehouse is loaded.
+	 */
+	void clear() {
+		_assignment.clear();
+	}
+
+	/**
+	 * Runs an operation in a shard's thread, and waits for it.
+	 *
+	 * @param shard     the shard.
+	 * @param operation the operation.
+	 * @return the operation's result.
+	 * @throws Exception the exception thrown by the operation.
+	 */
+	<T> T execute(int shard, Callable<T> operation) throws Exception {
+		return get(_shards[shard].submit(operation));
+	}
+
+	/**
+	 * Waits for an operation.
+	 *
+	 * @param future the operation's future.
+	 * @return the operation's result.
+	 * @throws Exception the exception thrown by the operation.
+	 */
+	private static <T> T get(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops the shard threads, after the operations already submitted.
+	 */
+	void close() {
+		for (ExecutorService shard: _shards) {
+			shard.shutdown();
+		}
+	}
+
+}
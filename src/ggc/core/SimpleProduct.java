@@ -10,6 +10,9 @@ import ggc.core.exception.NoProductStockException;
  */
 public class SimpleProduct extends Product {
 
+	/** Serial number for serialization, matching previously saved files. */
+	private static final long serialVersionUID = 2057204652326749652L;
+
 	/**
 	 * Creates a new simple product.
 	 *
@@ -56,12 +59,6 @@ public class SimpleProduct extends Product {
 		}
 	}
 
-	/**
-	 * Aggregates the product.
-	 */
-	@Override
-	public void aggregate() {}
-
 	/**
 	 * Determines if a product can be disaggregated.
 	 * Aggregate products can always be disaggregated.
@@ -0,0 +1,673 @@
+package ggc.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class implements the binary snapshot format of a warehouse.
+ *
+ * Instead of serializing the whole object graph, a snapshot stores partners,
+ * products (with their recipes), batches and transactions as flat tables,
+ * where entities refer to each other by their position in the respective table.
+ * The file starts with a magic number and a format version.
+ *
+ * Transaction records come last, followed by an index with the key, partner and
+ * position of each record, so that the transaction history can be read on demand
+ * (see {@link TransactionArchive}). The file ends with the position of the index.
+ */
+class Snapshot {
+
+	/** Magic number identifying a snapshot file ("GGCS"). */
+	static final int MAGIC = 0x47474353;
+
+	/** Format version. */
+	static final short VERSION = 1;
+
+	/** Transaction types. */
+	private static final byte ACQUISITION = 0;
+	private static final byte CREDIT_SALE = 1;
+	private static final byte BREAKDOWN_SALE = 2;
+
+	/** Product types. */
+	private static final byte SIMPLE_PRODUCT = 0;
+	private static final byte AGGREGATE_PRODUCT = 1;
+
+	/** Index flag of unpaid credit sales, which are always read eagerly. */
+	private static final byte UNPAID_CREDIT_SALE = 1;
+
+	/** Marks the absence of a date. */
+	private static final int NO_DATE = Integer.MIN_VALUE;
+
+	/** Name of the file associated with the warehouse. */
+	private String _filename;
+
+	/** Sequence number of the last journaled change included in the snapshot. */
+	private long _sequence;
+
+	/** The warehouse. */
+	private Warehouse _warehouse;
+
+	/**
+	 * @param filename  the name of the file associated with the warehouse.
+	 * @param sequence  the sequence number of the last journaled change.
+	 * @param warehouse the warehouse.
+	 */
+	Snapshot(String filename, long sequence, Warehouse warehouse) {
+		_filename = filename;
+		_sequence = sequence;
+		_warehouse = warehouse;
+	}
+
+	/**
+	 * @return the name of the file associated with the warehouse.
+	 */
+	String getFilename() {
+		return _filename;
+	}
+
+	/**
+	 * @return the sequence number of the last journaled change.
+	 */
+	long getSequence() {
+		return _sequence;
+	}
+
+	/**
+	 * @return the warehouse.
+	 */
+	Warehouse getWarehouse() {
+		return _warehouse;
+	}
+
+	/**
+	 * Determines if the given file starts like a snapshot.
+	 *
+	 * @param filename the file name.
+	 * @return true, if the file starts with the snapshot magic number; false, otherwise.
+	 * @throws IOException if the file can't be read.
+	 */
+	static boolean isSnapshot(String filename) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+			return in.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the snapshot.
+	 *
+	 * @param stream the stream to write to.
+	 * @throws IOException if the snapshot can't be written.
+	 */
+	void write(OutputStream stream) throws IOException {
+		CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		DataOutputStream out = new DataOutputStream(counter);
+
+		List<Partner> partners = new ArrayList<>(_warehouse.getPartners());
+		List<Product> products = getProductsInDependencyOrder(_warehouse.getProducts());
+		Map<Partner, Integer> partnerIndex = new IdentityHashMap<>();
+		Map<Product, Integer> productIndex = new IdentityHashMap<>();
+
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		writeString(out, _filename);
+		out.writeLong(_sequence);
+		out.writeInt(_warehouse.getDate());
+		out.writeDouble(_warehouse.getAvailableBalance());
+		out.writeInt(_warehouse.getNextTransactionId());
+
+		// Partners.
+		out.writeInt(partners.size());
+		for (Partner partner: partners) {
+			partnerIndex.put(partner, partnerIndex.size());
+			writeString(out, partner.getKey());
+			writeString(out, partner.getName());
+			writeString(out, partner.getAddress());
+			out.writeByte(partner.getStatus().getClassification().ordinal());
+			out.writeInt(partner.getStatus().getPoints());
+			out.writeDouble(partner.getAcquisitionsValue());
+			out.writeDouble(partner.getAllSalesValue());
+			out.writeDouble(partner.getPaidSalesValue());
+			out.writeInt(partner.getInboxCapacity());
+			out.writeBoolean(partner.isInboxCoalescing());
+		}
+
+		// Products, each after its components.
+		out.writeInt(products.size());
+		for (Product product: products) {
+			productIndex.put(product, productIndex.size());
+			out.writeByte(product instanceof AggregateProduct ? AGGREGATE_PRODUCT : SIMPLE_PRODUCT);
+			writeString(out, product.getKey());
+			out.writeDouble(product.getMaxPrice());
+			out.writeBoolean(product.isNew());
+
+			if (product instanceof AggregateProduct) {
+				List<Integer> components = new ArrayList<>();
+				Iterator<Product> prodIter = product.getProductIterator();
+				Iterator<Integer> quantIter = product.getQuantityIterator();
+
+				while (prodIter.hasNext() && quantIter.hasNext()) {
+					components.add(productIndex.get(prodIter.next()));
+					components.add(quantIter.next());
+				}
+
+				out.writeDouble(((AggregateProduct) product).getAggravation());
+				out.writeInt(components.size() / 2);
+				for (int value: components) {
+					out.writeInt(value);
+				}
+			}
+
+			// Partners not interested in the product's notifications.
+			List<Integer> optOuts = new ArrayList<>();
+			for (Notifiable partner: product.getOptOuts()) {
+				Integer index = partnerIndex.get(partner);
+				if (index != null)
+					optOuts.add(index);
+			}
+			Collections.sort(optOuts);
+			out.writeInt(optOuts.size());
+			for (int partner: optOuts) {
+				out.writeInt(partner);
+			}
+		}
+
+		// Batches, in each product's price order.
+		for (Product product: products) {
+			Collection<Batch> batches = product.getBatchesByPrice();
+			out.writeInt(batches.size());
+			for (Batch batch: batches) {
+				out.writeInt(partnerIndex.get(batch.getPartner()));
+				out.writeDouble(batch.getPrice());
+				out.writeInt(batch.getStock());
+			}
+		}
+
+		// Unread notifications, each stored once however many partners received it.
+		Map<Notification, Integer> notificationIndex = new HashMap<>();
+		List<Notification> notifications = new ArrayList<>();
+		for (Partner partner: partners) {
+			for (Notification notification: partner.getUnreadNotifications()) {
+				if (notificationIndex.putIfAbsent(notification, notifications.size()) == null)
+					notifications.add(notification);
+			}
+		}
+
+		out.writeInt(notifications.size());
+		for (Notification notification: notifications) {
+			writeString(out, notification.getType());
+			out.writeInt(productIndex.get(notification.getProduct()));
+			out.writeDouble(notification.getPrice());
+		}
+
+		for (Partner partner: partners) {
+			Collection<Notification> unread = partner.getUnreadNotifications();
+			out.writeInt(unread.size());
+			for (Notification notification: unread) {
+				out.writeInt(notificationIndex.get(notification));
+			}
+		}
+
+		// Transactions, by key: those read into the warehouse and, as they are in
+		// the file the warehouse was loaded from, those not read yet.
+		Map<Integer, Transaction> transactions = new TreeMap<>();
+		for (Transaction transaction: _warehouse.getLoadedTransactions()) {
+			transactions.put(transaction.getKey(), transaction);
+		}
+
+		TransactionArchive archive = _warehouse.getArchive();
+		int archived = (archive != null) ? archive.size() : 0;
+		int count = transactions.size() + ((archive != null) ? archive.countUnread() : 0);
+		int[] keys = new int[count];
+		int[] owners = new int[count];
+		byte[] flags = new byte[count];
+		long[] offsets = new long[count];
+		Iterator<Transaction> loaded = transactions.values().iterator();
+		Transaction next = loaded.hasNext() ? loaded.next() : null;
+		int unread = 0;
+
+		for (int position = 0; position < count; position++) {
+			while (unread < archived && archive.isLoaded(unread)) {
+				unread++;
+			}
+
+			offsets[position] = counter.getCount();
+			if (next != null && (unread == archived || next.getKey() < archive.getKey(unread))) {
+				keys[position] = next.getKey();
+				owners[position] = partnerIndex.get(next.getPartner());
+				flags[position] = (next instanceof CreditSale && !next.isPaid()) ? UNPAID_CREDIT_SALE : 0;
+				writeTransaction(out, next, partnerIndex, productIndex);
+				next = loaded.hasNext() ? loaded.next() : null;
+			} else {
+				// Unpaid credit sales are always read, so transactions not read yet are settled.
+				keys[position] = archive.getKey(unread);
+				owners[position] = partnerIndex.get(archive.getPartner(unread));
+				archive.copyRecord(unread, out, partnerIndex, productIndex);
+				unread++;
+			}
+		}
+
+		// Transaction index.
+		long indexPosition = counter.getCount();
+		out.writeInt(count);
+		for (int position = 0; position < count; position++) {
+			out.writeInt(keys[position]);
+			out.writeInt(owners[position]);
+			out.writeByte(flags[position]);
+			out.writeLong(offsets[position]);
+		}
+		out.writeLong(indexPosition);
+
+		out.flush();
+	}
+
+	/**
+	 * Writes a transaction.
+	 */
+	private static void writeTransaction(DataOutputStream out, Transaction transaction,
+			Map<Partner, Integer> partnerIndex, Map<Product, Integer> productIndex) throws IOException {
+
+		if (transaction instanceof Acquisition)
+			out.writeByte(ACQUISITION);
+		else if (transaction instanceof CreditSale)
+			out.writeByte(CREDIT_SALE);
+		else
+			out.writeByte(BREAKDOWN_SALE);
+
+		out.writeInt(transaction.getKey());
+		out.writeInt(partnerIndex.get(transaction.getPartner()));
+		out.writeInt(productIndex.get(transaction.getProduct()));
+		out.writeInt(transaction.getProductAmount());
+		writeDate(out, transaction.getPaymentDate());
+
+		if (transaction instanceof Acquisition) {
+			out.writeDouble(transaction.getPrice());
+
+		} else if (transaction instanceof CreditSale) {
+			CreditSale sale = (CreditSale) transaction;
+			out.writeDouble(sale.getBasePrice());
+			out.writeDouble(sale.getPrice());
+			writeDate(out, sale.getPaymentDeadline());
+
+		} else {
+			BreakdownSale sale = (BreakdownSale) transaction;
+			out.writeDouble(sale.getBasePrice());
+			out.writeDouble(sale.getPrice());
+			out.writeInt(sale.getProductPrices().size());
+			for (double price: sale.getProductPrices()) {
+				out.writeDouble(price);
+			}
+		}
+	}
+
+	/**
+	 * Reads a snapshot.
+	 * The file is mapped into memory and the transaction history is left to be read
+	 * on demand, except for unpaid credit sales. The file stays open until then.
+	 *
+	 * @param filename the snapshot file name.
+	 * @return the snapshot.
+	 * @throws IOException if the file can't be read or isn't a valid snapshot.
+	 */
+	static Snapshot read(String filename) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		boolean archived = false;
+
+		try {
+			long size = channel.size();
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+
+			if (in.getInt() != MAGIC)
+				throw new IOException("Not a warehouse snapshot");
+
+			short version = in.getShort();
+			if (version != VERSION)
+				throw new IOException("Unsupported snapshot version: " + version);
+
+			String associatedFilename = readString(in);
+			long sequence = in.getLong();
+			Warehouse warehouse = new Warehouse(in.getInt(), in.getDouble(), in.getInt());
+
+			// Partners.
+			Partner[] partners = new Partner[in.getInt()];
+			double[] values = new double[3 * partners.length];
+			for (int i = 0; i < partners.length; i++) {
+				Partner partner = new Partner(readString(in), readString(in), readString(in));
+				Classification classification = Classification.values()[in.get()];
+				int points = in.getInt();
+				values[3 * i] = in.getDouble();
+				values[3 * i + 1] = in.getDouble();
+				values[3 * i + 2] = in.getDouble();
+				partner.configureInbox(in.getInt(), in.get() != 0);
+
+				switch (classification) {
+					case SELECTION:
+						partner.changeStatus(new SelectionStatus(partner, points));
+						break;
+					case ELITE:
+						partner.changeStatus(new EliteStatus(partner, points));
+						break;
+					default:
+						partner.changeStatus(new NormalStatus(partner, points));
+				}
+
+				partners[i] = partner;
+				warehouse.addPartner(partner);
+			}
+
+			// Products.
+			Product[] products = new Product[in.getInt()];
+			for (int i = 0; i < products.length; i++) {
+				byte type = in.get();
+				String key = readString(in);
+				double maxPrice = in.getDouble();
+				boolean isNew = in.get() != 0;
+
+				if (type == AGGREGATE_PRODUCT) {
+					double aggravation = in.getDouble();
+					List<Product> components = new ArrayList<>();
+					List<Integer> quantities = new ArrayList<>();
+
+					for (int n = in.getInt(); n > 0; n--) {
+						components.add(products[in.getInt()]);
+						quantities.add(in.getInt());
+					}
+					products[i] = new AggregateProduct(key, aggravation, components, quantities);
+				} else {
+					products[i] = new SimpleProduct(key);
+				}
+
+				products[i].restore(maxPrice, isNew);
+				warehouse.addProduct(products[i]);
+
+				for (int n = in.getInt(); n > 0; n--) {
+					products[i].removeNotifiable(partners[in.getInt()]);
+				}
+			}
+
+			// Batches.
+			for (Product product: products) {
+				for (int n = in.getInt(); n > 0; n--) {
+					Batch batch = new Batch(product, partners[in.getInt()], in.getDouble());
+					batch.add(in.getInt());
+					product.addBatch(batch);
+				}
+			}
+
+			// Unread notifications.
+			Notification[] notifications = new Notification[in.getInt()];
+			for (int i = 0; i < notifications.length; i++) {
+				notifications[i] = new Notification(readString(in), products[in.getInt()], in.getDouble());
+			}
+
+			for (Partner partner: partners) {
+				for (int n = in.getInt(); n > 0; n--) {
+					partner.addNotification(notifications[in.getInt()]);
+				}
+			}
+
+			// Transactions.
+			TransactionArchive archive = readArchive(channel, size, warehouse, partners, products);
+			archived = true;
+
+			warehouse.setArchive(archive);
+			for (int i = 0; i < partners.length; i++) {
+				partners[i].restoreHistory(archive, values[3 * i], values[3 * i + 1], values[3 * i + 2]);
+			}
+
+			return new Snapshot(associatedFilename, sequence, warehouse);
+
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IOException("Truncated or corrupted snapshot", e);
+
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+
+		} finally {
+			if (!archived)
+				channel.close();
+		}
+	}
+
+	/**
+	 * Reads the transaction index at the end of the file and reads the unpaid credit sales.
+	 *
+	 * @param channel   the snapshot file.
+	 * @param size      the size of the file.
+	 * @param warehouse the warehouse to read transactions into.
+	 * @param partners  the snapshot's partners.
+	 * @param products  the snapshot's products.
+	 * @return the archive with the remaining transactions.
+	 * @throws IOException if the index can't be read.
+	 */
+	private static TransactionArchive readArchive(FileChannel channel, long size, Warehouse warehouse,
+			Partner[] partners, Product[] products) throws IOException {
+
+		ByteBuffer trailer = ByteBuffer.allocate(Long.BYTES);
+		while (trailer.hasRemaining()) {
+			if (channel.read(trailer, size - Long.BYTES + trailer.position()) < 0)
+				throw new EOFException();
+		}
+		long indexPosition = trailer.getLong(0);
+		if (indexPosition < 0 || indexPosition > size - Long.BYTES)
+			throw new IOException("Corrupted snapshot index");
+
+		channel.position(indexPosition);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+
+		int count = in.readInt();
+		int[] keys = new int[count];
+		int[] owners = new int[count];
+		long[] offsets = new long[count];
+		List<Integer> unpaid = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			keys[i] = in.readInt();
+			owners[i] = in.readInt();
+			if (in.readByte() == UNPAID_CREDIT_SALE)
+				unpaid.add(keys[i]);
+			offsets[i] = in.readLong();
+
+			if (owners[i] < 0 || owners[i] >= partners.length || offsets[i] < 0 || offsets[i] > indexPosition)
+				throw new IOException("Corrupted snapshot index");
+		}
+
+		TransactionArchive archive = new TransactionArchive(channel, indexPosition, warehouse, partners, products, keys, owners, offsets);
+
+		// Unpaid credit sales are needed for the accounting balance.
+		for (int key: unpaid) {
+			archive.load(key);
+		}
+
+		return archive;
+	}
+
+	/**
+	 * Copies a transaction record of another snapshot, as it is, except
+	 * for the positions of its partner and product in this snapshot.
+	 *
+	 * @param in           the record data.
+	 * @param out          the stream to write to.
+	 * @param partners     the other snapshot's partners.
+	 * @param products     the other snapshot's products.
+	 * @param partnerIndex the position of each partner in this snapshot.
+	 * @param productIndex the position of each product in this snapshot.
+	 * @throws IOException if the record can't be written.
+	 */
+	static void copyTransaction(ByteBuffer in, DataOutputStream out, Partner[] partners, Product[] products,
+			Map<Partner, Integer> partnerIndex, Map<Product, Integer> productIndex) throws IOException {
+
+		out.writeByte(in.get());
+		out.writeInt(in.getInt());
+		out.writeInt(partnerIndex.get(partners[in.getInt()]));
+		out.writeInt(productIndex.get(products[in.getInt()]));
+
+		byte[] rest = new byte[in.remaining()];
+		in.get(rest);
+		out.write(rest);
+	}
+
+	/**
+	 * Reads a transaction record.
+	 *
+	 * @param in       the record data.
+	 * @param partners the snapshot's partners.
+	 * @param products the snapshot's products.
+	 * @return the transaction.
+	 */
+	static Transaction readTransaction(ByteBuffer in, Partner[] partners, Product[] products) {
+		byte type = in.get();
+		int key = in.getInt();
+		Partner partner = partners[in.getInt()];
+		Product product = products[in.getInt()];
+		int amount = in.getInt();
+		Date paymentDate = readDate(in);
+
+		if (type == ACQUISITION) {
+			return new Acquisition(key, partner, product, amount, paymentDate, in.getDouble());
+
+		} else if (type == CREDIT_SALE) {
+			double basePrice = in.getDouble();
+			double effectivePrice = in.getDouble();
+			Date paymentDeadline = readDate(in);
+			return new CreditSale(key, partner, product, amount, basePrice, effectivePrice, paymentDeadline, paymentDate);
+
+		} else {
+			double basePrice = in.getDouble();
+			double effectivePrice = in.getDouble();
+			List<Double> productPrices = new ArrayList<>();
+			for (int n = in.getInt(); n > 0; n--) {
+				productPrices.add(in.getDouble());
+			}
+			return new BreakdownSale(key, partner, product, amount, paymentDate, basePrice, effectivePrice, productPrices);
+		}
+	}
+
+	/**
+	 * Sorts products so that every aggregate product comes after its components.
+	 *
+	 * @param products the products to sort.
+	 * @return the sorted products.
+	 */
+	private static List<Product> getProductsInDependencyOrder(Collection<Product> products) {
+		List<Product> sorted = new ArrayList<>();
+		Map<Product, Boolean> visited = new IdentityHashMap<>();
+
+		for (Product product: products) {
+			visit(product, visited, sorted);
+		}
+
+		return sorted;
+	}
+
+	/**
+	 * Adds a product to the list, after all its components.
+	 */
+	private static void visit(Product product, Map<Product, Boolean> visited, List<Product> sorted) {
+		if (visited.put(product, true) != null)
+			return;
+
+		Iterator<Product> components = product.getProductIterator();
+		while (components.hasNext()) {
+			visit(components.next(), visited, sorted);
+		}
+
+		sorted.add(product);
+	}
+
+	/**
+	 * Writes a string as its length followed by its UTF-8 bytes.
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString}.
+	 */
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a date, which may be missing.
+	 */
+	private static void writeDate(DataOutputStream out, Date date) throws IOException {
+		out.writeInt((date != null) ? date.getDays() : NO_DATE);
+	}
+
+	/**
+	 * Reads a date written by {@link #writeDate}.
+	 */
+	private static Date readDate(ByteBuffer in) {
+		int days = in.getInt();
+		return (days != NO_DATE) ? new Date(days) : null;
+	}
+
+	/**
+	 * Output stream that counts the bytes written through it.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		/** Number of bytes written. */
+		private long _count;
+
+		/**
+		 * @param out the stream to write to.
+		 */
+		CountingOutputStream(OutputStream out) {
+			super(out);
+			_count = 0;
+		}
+
+		/**
+		 * @return the number of bytes written.
+		 */
+		long getCount() {
+			return _count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			_count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			_count += len;
+		}
+
+	}
+
+}
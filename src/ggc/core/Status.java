@@ -2,11 +2,6 @@ package ggc.core;
 
 import java.io.Serializable;
 
-/** Levels of status public classification. */
-enum Classification {
-	NORMAL, SELECTION, ELITE;
-}
-
 /**
  * This public class is responsible for the partner's point accounting.
  * The partner's status depends on its delay paying its sales.
@@ -16,6 +11,9 @@ public abstract class Status implements Serializable {
 	/** Serial number for serialization. */
 	private static final long serialVersionUID = 202109192006L;
 
+	/** Next price change of a credit sale whose price is final. */
+	static final int NEVER = Integer.MAX_VALUE;
+
 	/** The status's partner. */
 	private Partner _partner;
 
@@ -41,6 +39,13 @@ public abstract class Status implements Serializable {
 		return _partner;
 	}
 
+	/**
+	 * @return the status classification.
+	 */
+	Classification getClassification() {
+		return _classification;
+	}
+
 	/**
 	 * @return the number of points.
 	 */
@@ -79,7 +84,7 @@ public abstract class Status implements Serializable {
 	 */
 	double getTransactionPrice(CreditSale transaction) {
 		int nFactor = transaction.getProduct().getNTimeFactor();
-		int timeDelay = Date.now().difference(transaction.getPaymentDeadline());
+		int timeDelay = _partner.getDate() - transaction.getPaymentDeadline().getDays();
 		double price = transaction.getBasePrice();
 
 		// P1
@@ -102,6 +107,35 @@ public abstract class Status implements Serializable {
 		return price;
 	}
 
+	/**
+	 * Determines the first day, after the given one, in which the credit sale
+	 * price may change with the current classification. The price only changes
+	 * when the sale enters a period with a different price, and every day while
+	 * it's in a period whose price depends on the delay.
+	 *
+	 * @param transaction the credit sale.
+	 * @param date        the current date.
+	 * @return the next date in which the credit sale should be repriced
+	 *         ({@link #NEVER}, if its price is final).
+	 */
+	int getNextPriceChange(CreditSale transaction, int date) {
+		int nFactor = transaction.getProduct().getNTimeFactor();
+		int deadline = transaction.getPaymentDeadline().getDays();
+		int timeDelay = getNextPriceChangeDelay(date - deadline, nFactor);
+
+		return (timeDelay == NEVER) ? NEVER : deadline + timeDelay;
+	}
+
+	/**
+	 * Determines the first payment delay, after the given one, in which the
+	 * credit sale price may change.
+	 *
+	 * @param timeDelay the current payment delay.
+	 * @param nFactor   the product's time factor.
+	 * @return the next payment delay in which the price may change ({@link #NEVER}, if none).
+	 */
+	abstract int getNextPriceChangeDelay(int timeDelay, int nFactor);
+
 	/**
 	 * Processes the payment of a credit sale.
 	 *
@@ -109,7 +143,7 @@ public abstract class Status implements Serializable {
 	 */
 	void payTransaction(CreditSale transaction) {
 		int nFactor = transaction.getProduct().getNTimeFactor();
-		int timeDelay = Date.now().difference(transaction.getPaymentDeadline());
+		int timeDelay = _partner.getDate() - transaction.getPaymentDeadline().getDays();
 		double price = transaction.getBasePrice();
 
 		// P1
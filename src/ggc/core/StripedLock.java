@@ -0,0 +1,132 @@
+package ggc.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks used by a warehouse manager in concurrent mode.
+ *
+ * Operations that change only some products and partners hold the shared lock
+ * and the stripes of those entities, so that operations on unrelated entities
+ * proceed in parallel. Operations that change the warehouse as a whole
+ * (forwarding time, registering entities, loading, saving) hold the exclusive lock.
+ * Stripes are always locked in increasing order, so operations never deadlock.
+ */
+class StripedLock {
+
+	/** Default number of stripes. */
+	static final int DEFAULT_STRIPES = 256;
+
+	/** Lock over the whole warehouse. */
+	private final ReentrantReadWriteLock _global;
+
+	/** Locks over groups of entities. */
+	private final ReentrantLock[] _stripes;
+
+	/**
+	 * Creates the locks.
+	 *
+	 * @param stripes the number of stripes.
+	 */
+	StripedLock(int stripes) {
+		if (stripes < 1)
+			throw new IllegalArgumentException("number of stripes must be positive: " + stripes);
+
+		_global = new ReentrantReadWriteLock();
+		_stripes = new ReentrantLock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			_stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Acquires the shared lock, held by operations on some entities only.
+	 */
+	void lockShared() {
+		_global.readLock().lock();
+	}
+
+	/**
+	 * Releases the shared lock.
+	 */
+	void unlockShared() {
+		_global.readLock().unlock();
+	}
+
+	/**
+	 * Acquires the exclusive lock, held by operations on the whole warehouse.
+	 */
+	void lockExclusive() {
+		_global.writeLock().lock();
+	}
+
+	/**
+	 * Releases the exclusive lock.
+	 */
+	void unlockExclusive() {
+		_global.writeLock().unlock();
+	}
+
+	/**
+	 * @return true, if the current thread holds the exclusive lock; false, otherwise.
+	 */
+	boolean isExclusiveHeld() {
+		return _global.isWriteLockedByCurrentThread();
+	}
+
+	/**
+	 * Acquires the stripes of the given entities, in increasing order.
+	 *
+	 * @param entities the products and partners involved in an operation.
+	 * @return the stripes acquired, to be released by {@link #unlock(int[])}.
+	 */
+	int[] lock(Collection<?> entities) {
+		int[] stripes = new int[entities.size()];
+		int count = 0;
+
+		for (Object entity: entities) {
+			stripes[count++] = stripeOf(entity);
+		}
+
+		// Lock each stripe once, in a global order.
+		Arrays.sort(stripes);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || stripes[i] != stripes[distinct - 1])
+				stripes[distinct++] = stripes[i];
+		}
+		stripes = Arrays.copyOf(stripes, distinct);
+
+		for (int stripe: stripes) {
+			_stripes[stripe].lock();
+		}
+
+		return stripes;
+	}
+
+	/**
+	 * Releases stripes, in reverse order.
+	 *
+	 * @param stripes the stripes acquired by {@link #lock(Collection)}.
+	 */
+	void unlock(int[] stripes) {
+		for (int i = stripes.length - 1; i >= 0; i--) {
+			_stripes[stripes[i]].unlock();
+		}
+	}
+
+	/**
+	 * Products and partners are hashed by identity, which stays the same while they're registered.
+	 *
+	 * @param entity a product or partner.
+	 * @return the entity's stripe.
+	 */
+	private int stripeOf(Object entity) {
+		int hash = System.identityHashCode(entity);
+		hash ^= (hash >>> 16);
+		return Math.floorMod(hash, _stripes.length);
+	}
+
+}
@@ -82,7 +82,7 @@ public abstract class Transaction implements Serializable, Comparable<Transactio
 	 * Set the transaction's payment date to the current date.
 	 */
 	final void setPaymentDate() {
-		_paymentDate = Date.now();
+		_paymentDate = new Date(_partner.getDate());
 	}
 
 	/**
@@ -119,6 +119,12 @@ public abstract class Transaction implements Serializable, Comparable<Transactio
 			_key == ((Transaction) other).getKey();
 	}
 
+	/** @see java.lang.Object#hashCode() */
+	@Override
+	public int hashCode() {
+		return _key;
+	}
+
 	/**
 	 * Compares transactions by id.
 	 *
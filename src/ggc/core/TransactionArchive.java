@@ -0,0 +1,281 @@
+package ggc.core;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Transactions of a snapshot file, read into the warehouse on demand.
+ *
+ * The archive keeps an index of the snapshot's transactions (key, partner and
+ * position in the file) and maps the file into memory, so that a transaction
+ * is only decoded when it's first needed: when looked up by key, when its
+ * partner's history is requested or when all transactions are.
+ * The file is closed once every transaction has been read.
+ */
+class TransactionArchive implements Closeable {
+
+	/** Size of each mapped region of the file. */
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	/** Extra bytes mapped past each region, so that records rarely cross regions. */
+	private static final int SEGMENT_OVERLAP = 1 << 20;
+
+	/** The snapshot file. */
+	private FileChannel _channel;
+
+	/** Mapped regions of the file, mapped when first needed. */
+	private MappedByteBuffer[] _segments;
+
+	/** Position where the transaction records end. */
+	private long _end;
+
+	/** The warehouse the transactions are read into. */
+	private Warehouse _warehouse;
+
+	/** The snapshot's partners, by index. */
+	private Partner[] _partners;
+
+	/** The snapshot's products, by index. */
+	private Product[] _products;
+
+	/** Index of each partner. */
+	private Map<Partner, Integer> _partnerIndex;
+
+	/** Transaction keys, in increasing order. */
+	private int[] _keys;
+
+	/** Position of each transaction record in the file. */
+	private long[] _offsets;
+
+	/** Partner index of each transaction. */
+	private int[] _owners;
+
+	/** Transactions of each partner: those of partner i are in [_partnerStart[i], _partnerStart[i + 1]). */
+	private int[] _partnerStart;
+
+	/** Transactions, grouped by partner. */
+	private int[] _partnerTransactions;
+
+	/** Transactions already read. */
+	private BitSet _loaded;
+
+	/** Number of transactions already read. */
+	private int _loadedCount;
+
+	/**
+	 * @param channel   the snapshot file.
+	 * @param end       the position where the transaction records end.
+	 * @param warehouse the warehouse to read the transactions into.
+	 * @param partners  the snapshot's partners.
+	 * @param products  the snapshot's products.
+	 * @param keys      the transaction keys, in increasing order.
+	 * @param owners    the partner index of each transaction.
+	 * @param offsets   the position of each transaction record.
+	 */
+	TransactionArchive(FileChannel channel, long end, Warehouse warehouse, Partner[] partners, Product[] products,
+			int[] keys, int[] owners, long[] offsets) {
+
+		_channel = channel;
+		_segments = new MappedByteBuffer[(int) ((end + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+		_end = end;
+		_warehouse = warehouse;
+		_partners = partners;
+		_products = products;
+		_keys = keys;
+		_owners = owners;
+		_offsets = offsets;
+		_loaded = new BitSet(keys.length);
+		_loadedCount = 0;
+
+		_partnerIndex = new IdentityHashMap<>();
+		for (int i = 0; i < partners.length; i++) {
+			_partnerIndex.put(partners[i], i);
+		}
+
+		// Group transactions by partner, keeping them in key order.
+		_partnerStart = new int[partners.length + 1];
+		for (int owner: owners) {
+			_partnerStart[owner + 1]++;
+		}
+		for (int i = 0; i < partners.length; i++) {
+			_partnerStart[i + 1] += _partnerStart[i];
+		}
+
+		int[] next = Arrays.copyOf(_partnerStart, partners.length);
+		_partnerTransactions = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			_partnerTransactions[next[owners[i]]++] = i;
+		}
+	}
+
+	/**
+	 * @param key the transaction key.
+	 * @return true, if the archive has the transaction with the given key; false, otherwise.
+	 */
+	boolean contains(int key) {
+		return Arrays.binarySearch(_keys, key) >= 0;
+	}
+
+	/**
+	 * @return the number of transactions of the archive, read or not.
+	 */
+	int size() {
+		return _keys.length;
+	}
+
+	/**
+	 * @return the number of transactions not read yet.
+	 */
+	int countUnread() {
+		return _keys.length - _loadedCount;
+	}
+
+	/**
+	 * @param position the transaction's position in the index.
+	 * @return the transaction key.
+	 */
+	int getKey(int position) {
+		return _keys[position];
+	}
+
+	/**
+	 * @param position the transaction's position in the index.
+	 * @return the transaction's partner.
+	 */
+	Partner getPartner(int position) {
+		return _partners[_owners[position]];
+	}
+
+	/**
+	 * @param position the transaction's position in the index.
+	 * @return true, if the transaction has been read; false, otherwise.
+	 */
+	boolean isLoaded(int position) {
+		return _loaded.get(position);
+	}
+
+	/**
+	 * Copies the record of a transaction not read yet to a new snapshot, without reading it.
+	 *
+	 * @param position     the transaction's position in the index.
+	 * @param out          the stream to write to.
+	 * @param partnerIndex the position of each partner in the new snapshot.
+	 * @param productIndex the position of each product in the new snapshot.
+	 * @throws IOException if the record can't be read or written.
+	 */
+	void copyRecord(int position, DataOutputStream out, Map<Partner, Integer> partnerIndex,
+			Map<Product, Integer> productIndex) throws IOException {
+		Snapshot.copyTransaction(getRecord(position), out, _partners, _products, partnerIndex, productIndex);
+	}
+
+	/**
+	 * Reads the transaction with the given key, if not read yet.
+	 *
+	 * @param key the transaction key.
+	 */
+	void load(int key) {
+		int position = Arrays.binarySearch(_keys, key);
+		if (position >= 0)
+			loadPosition(position);
+	}
+
+	/**
+	 * Reads all the partner's transactions not read yet.
+	 *
+	 * @param partner the partner.
+	 */
+	void loadPartner(Partner partner) {
+		Integer index = _partnerIndex.get(partner);
+		if (index == null)
+			return;
+
+		for (int i = _partnerStart[index]; i < _partnerStart[index + 1]; i++) {
+			loadPosition(_partnerTransactions[i]);
+		}
+	}
+
+	/**
+	 * Reads all transactions not read yet.
+	 */
+	void loadAll() {
+		for (int position = 0; position < _keys.length; position++) {
+			loadPosition(position);
+		}
+	}
+
+	/**
+	 * Reads a transaction into the warehouse, if not read yet.
+	 *
+	 * @param position the transaction's position in the index.
+	 */
+	private void loadPosition(int position) {
+		if (_loaded.get(position))
+			return;
+
+		try {
+			_warehouse.restoreTransaction(Snapshot.readTransaction(getRecord(position), _partners, _products));
+			_loaded.set(position);
+
+			if (++_loadedCount == _keys.length)
+				close();
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns the bytes of a transaction record.
+	 * Records are read from the mapped file, unless they cross a mapped region.
+	 *
+	 * @param position the transaction's position in the index.
+	 * @return the record.
+	 * @throws IOException if the record can't be read.
+	 */
+	private ByteBuffer getRecord(int position) throws IOException {
+		long start = _offsets[position];
+		long end = (position + 1 < _offsets.length) ? _offsets[position + 1] : _end;
+		int segment = (int) (start / SEGMENT_SIZE);
+		long base = segment * SEGMENT_SIZE;
+
+		if (_segments[segment] == null)
+			_segments[segment] = _channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, _end - base));
+
+		if (end - base <= _segments[segment].capacity()) {
+			ByteBuffer record = _segments[segment].duplicate();
+			record.limit((int) (end - base));
+			record.position((int) (start - base));
+			return record;
+		}
+
+		ByteBuffer record = ByteBuffer.allocate((int) (end - start));
+		while (record.hasRemaining()) {
+			if (_channel.read(record, start + record.position()) < 0)
+				throw new EOFException();
+		}
+		record.flip();
+		return record;
+	}
+
+	/**
+	 * Closes the snapshot file.
+	 *
+	 * @throws IOException if the file can't be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		_segments = null;
+		_channel.close();
+	}
+
+}
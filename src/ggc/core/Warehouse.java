@@ -1,18 +1,23 @@
 package ggc.core;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.TreeMap;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.stream.Stream;
 
 import java.io.Serializable;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 
 import ggc.core.exception.BadEntryException;
 import ggc.core.exception.InvalidDateIncrementException;
@@ -30,45 +35,138 @@ public class Warehouse implements Serializable {
 	/** Serial number for serialization. */
 	private static final long serialVersionUID = 202109192006L;
 
-	/** Date to keep track of time. */
-	private Date _date;
+	/** Fields of a serialized warehouse, as saved before snapshots were introduced. */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("_date", Date.class),
+		new ObjectStreamField("_accountingBalance", double.class),
+		new ObjectStreamField("_availableBalance", double.class),
+		new ObjectStreamField("_products", TreeMap.class),
+		new ObjectStreamField("_transactions", HashMap.class),
+		new ObjectStreamField("_nextTransactionId", int.class),
+		new ObjectStreamField("_partners", TreeMap.class),
+	};
 
-	/** Balance accounting with not yet paid transactions */
-	private double _accountingBalance;
+	/** Atomic counter over the next transaction identifier. */
+	private static final AtomicIntegerFieldUpdater<Warehouse> TRANSACTION_IDS =
+		AtomicIntegerFieldUpdater.newUpdater(Warehouse.class, "_nextTransactionId");
+
+	/** Clock to keep track of time. */
+	private Clock _clock;
 
 	/** Available balance */
 	private double _availableBalance;
 
+	/** Running total of not yet paid transactions. */
+	private ReceivablesLedger _receivables;
+
+	/** Unpaid credit sales, indexed by their next repricing date. */
+	private RepricingSchedule _repricing;
+
 	/** Collection of all registered products */
-	private TreeMap<String, Product> _products;
+	private NavigableMap<String, Product> _products;
+
+	/** Stock held by all products. */
+	private Inventory _inventory;
 
 	/** Collection of all transactions */
-	private HashMap<Integer, Transaction> _transactions;
+	private Map<Integer, Transaction> _transactions;
+
+	/** Transactions of a snapshot not yet read. */
+	private transient TransactionArchive _archive;
 
 	/** Next transaction identifier. */
-	private int _nextTransactionId;
+	private volatile int _nextTransactionId;
 
 	/** Collection of all registered partners */
-	private TreeMap<String, Partner> _partners;
+	private NavigableMap<String, Partner> _partners;
 
 	/**
 	 * Create a new warehouse.
 	 */
 	Warehouse() {
-		_date = new Date();
-		_accountingBalance = 0;
+		this(new Clock());
+	}
+
+	/**
+	 * Create a new warehouse, keeping time with the given clock.
+	 *
+	 * @param clock the warehouse's clock.
+	 */
+	Warehouse(Clock clock) {
+		_clock = clock;
 		_availableBalance = 0;
-		_products = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-		_transactions = new HashMap<>();
+		_receivables = new ReceivablesLedger();
+		_repricing = new RepricingSchedule();
+		_products = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+		_inventory = new Inventory();
+		_transactions = new ConcurrentHashMap<>();
 		_nextTransactionId = 0;
-		_partners = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		_partners = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+	}
+
+	/**
+	 * Restores a previously saved warehouse.
+	 * Products, partners and transactions are added afterwards.
+	 *
+	 * @param date              the current date.
+	 * @param availableBalance  the available balance.
+	 * @param nextTransactionId the next transaction identifier.
+	 */
+	Warehouse(int date, double availableBalance, int nextTransactionId) {
+		this(new Clock(date));
+		_availableBalance = availableBalance;
+		_nextTransactionId = nextTransactionId;
+	}
+
+	/**
+	 * @return the next transaction identifier.
+	 */
+	int getNextTransactionId() {
+		return _nextTransactionId;
+	}
+
+	/**
+	 * Sets the identifier of the next transaction registered.
+	 *
+	 * @param nextTransactionId the next transaction identifier.
+	 */
+	void setNextTransactionId(int nextTransactionId) {
+		_nextTransactionId = nextTransactionId;
+	}
+
+	/**
+	 * @return a new transaction identifier.
+	 */
+	private int newTransactionId() {
+		return TRANSACTION_IDS.getAndIncrement(this);
 	}
 
 	/**
 	 * @return the current date value.
 	 */
 	int getDate() {
-		return _date.getDays();
+		return _clock.today();
+	}
+
+	/**
+	 * @return the warehouse's clock.
+	 */
+	Clock getClock() {
+		return _clock;
+	}
+
+	/**
+	 * Makes the warehouse keep time with another clock, set to the warehouse's current date.
+	 *
+	 * @param clock the new clock.
+	 */
+	void setClock(Clock clock) {
+		clock.set(_clock.today());
+		_clock = clock;
+
+		for (Partner partner: _partners.values()) {
+			partner.setClock(clock);
+		}
 	}
 
 	/**
@@ -78,31 +176,59 @@ public class Warehouse implements Serializable {
 	 * @throws InvalidDateIncrementException if the amount is not positive.
 	 */
 	void forwardDate(int increment) throws InvalidDateIncrementException {
-		_date.forwardDate(increment);
+		_clock.forward(increment);
 
 		updateCreditSalePrices();
-		updateAccountingBalance();
 	}
 
 	/**
-	 * Updates the date.
+	 * @return the current warehouse's available balance.
 	 */
-	void updateDate() {
-		Date.update(_date);
+	synchronized double getAvailableBalance() {
+		return _availableBalance;
 	}
 
 	/**
-	 * @return the current warehouse's available balance.
+	 * The accounting balance also accounts for the value of all unpaid transactions.
+	 * With assertions enabled, the running total is checked against a full scan.
+	 *
+	 * @return the current warehouse's accounting balance.
 	 */
-	double getAvailableBalance() {
-		return _availableBalance;
+	synchronized double getAccountingBalance() {
+		assert _receivables.isConsistent(_transactions.values()) : "receivables ledger out of sync";
+		return _availableBalance + _receivables.getTotal();
 	}
 
 	/**
-	 * @return the current warehouse's accounting balance.
+	 * Checks the running totals against the warehouse's contents: the receivables ledger
+	 * against the unpaid transactions, and the inventory against the stock and batches
+	 * of every product. Meant for testing only, since it visits everything.
+	 *
+	 * @return true, if the totals agree with the contents; false, otherwise.
 	 */
-	double getAccountingBalance() {
-		return _accountingBalance;
+	boolean isConsistent() {
+		return _receivables.isConsistent(_transactions.values()) && _inventory.isConsistent(_products.values());
+	}
+
+	/**
+	 * @return the number of unpaid credit sales.
+	 */
+	int countUnpaidSales() {
+		return _receivables.countUnpaidSales();
+	}
+
+	/**
+	 * @return the number of units in stock, over all products.
+	 */
+	long getStockUnits() {
+		return _inventory.getUnits();
+	}
+
+	/**
+	 * @return the value of the units in stock, over all products, at their batch prices.
+	 */
+	double getStockValue() {
+		return _inventory.getValue();
 	}
 
 	/**
@@ -110,9 +236,8 @@ public class Warehouse implements Serializable {
 	 *
 	 * @param value the value to decrease by.
 	 */
-	void decreaseBalance(double value) {
+	synchronized void decreaseBalance(double value) {
 		_availableBalance -= value;
-		updateAccountingBalance();
 	}
 
 	/**
@@ -120,35 +245,19 @@ public class Warehouse implements Serializable {
 	 *
 	 * @param value the value to increase by.
 	 */
-	void increaseBalance(double value) {
+	synchronized void increaseBalance(double value) {
 		_availableBalance += value;
-		updateAccountingBalance();
-	}
-
-	/**
-	 * Update the accounting balance.
-	 */
-	void updateAccountingBalance() {
-		double notPaidValue = 0;
-
-		for (Transaction transaction: getTransactions()) {
-			if (!transaction.isPaid()) {
-				notPaidValue += transaction.getPrice();
-			}
-		}
-		_accountingBalance = _availableBalance + notPaidValue;
 	}
 
 	/**
 	 * Adds a product to the warehouse's collection.
-	 * Also registers all partners as interested in being notified.
+	 * Also accounts the product's stock in the warehouse's inventory.
+	 * All partners are interested in the product's notifications, until they opt out.
 	 *
 	 * @param product the product to add.
 	 */
 	void addProduct(Product product) {
-		for (Partner partner: _partners.values()) {
-			product.addNotifiable(partner);
-		}
+		product.setInventory(_inventory);
 
 		_products.put(product.getKey(), product);
 	}
@@ -206,44 +315,89 @@ public class Warehouse implements Serializable {
 	}
 
 	/**
-	 * @return a collection with all batches.
+	 * @return a lazy stream of all products, sorted by key.
 	 */
-	Collection<Batch> getBatches() {
-		List<Batch> batches = new ArrayList<>();
+	Stream<Product> streamProducts() {
+		return _products.values().stream();
+	}
+
+	/**
+	 * @return the number of registered products.
+	 */
+	int countProducts() {
+		return _products.size();
+	}
 
+	/**
+	 * Merges the batches of each product with the same partner and price.
+	 */
+	void compactBatches() {
 		for (Product product: _products.values()) {
-			batches.addAll(product.getBatches());
+			product.compactBatches();
 		}
+	}
 
-		Collections.sort(batches);
-
+	/**
+	 * @return the number of batches of all products.
+	 */
+	long countBatches() {
+		long batches = 0;
+		for (Product product: _products.values()) {
+			batches += product.countBatches();
+		}
 		return batches;
 	}
 
+	/**
+	 * @return a collection with all batches.
+	 */
+	Collection<Batch> getBatches() {
+		return _inventory.getBatches();
+	}
+
+	/**
+	 * @return a lazy stream of all batches, sorted by their natural order.
+	 */
+	Stream<Batch> streamBatches() {
+		return _inventory.streamBatches();
+	}
+
+	/**
+	 * @param product the product.
+	 * @return a lazy stream of the batches of the product, sorted by their natural order.
+	 */
+	Stream<Batch> streamBatches(Product product) {
+		return _inventory.streamBatches(product);
+	}
+
+	/**
+	 * Returns a page of all batches, sorted by their natural order.
+	 *
+	 * @param after the last batch of the previous page (null, for the first page).
+	 * @param limit the highest number of batches of the page.
+	 * @return the batches following the given one.
+	 */
+	List<Batch> getBatchesAfter(Batch after, int limit) {
+		return _inventory.getBatchesAfter(after, limit);
+	}
+
 	/**
 	 * Returns a collection of all batches under the specified price.
 	 *
 	 * @param price the price to compare to.
 	 */
 	Collection<Batch> getBatchesUnderGivenPrice(double price) {
-		Set<Batch> batches = new TreeSet<>();
-
-		for (Product product: _products.values())
-			batches.addAll(product.getBatchesUnderGivenPrice(price));
-
-		return batches;
+		return _inventory.getBatchesUnderGivenPrice(price);
 	}
 
 	/**
 	 * Adds a partner to the warehouse's collection.
+	 * The partner is interested in the notifications of all products, until it opts out.
 	 *
 	 * @param partner the partner to add.
 	 */
 	void addPartner(Partner partner) {
-		for (Product product: _products.values()) {
-			product.addNotifiable(partner);
-		}
-
+		partner.setClock(_clock);
 		_partners.put(partner.getKey(), partner);
 	}
 
@@ -294,6 +448,31 @@ public class Warehouse implements Serializable {
 		return new ArrayList<Partner>(_partners.values());
 	}
 
+	/**
+	 * @return a lazy stream of all partners, sorted by key.
+	 */
+	Stream<Partner> streamPartners() {
+		return _partners.values().stream();
+	}
+
+	/**
+	 * @return the number of registered partners.
+	 */
+	int countPartners() {
+		return _partners.size();
+	}
+
+	/**
+	 * @return the number of unread notifications of all partners.
+	 */
+	long countUnreadNotifications() {
+		long notifications = 0;
+		for (Partner partner: _partners.values()) {
+			notifications += partner.countUnreadNotifications();
+		}
+		return notifications;
+	}
+
 	/**
 	 * Adds a acquisition transaction to the warehouse's collection.
 	 * This method also adds the transaction to the partner's collection of transactions.
@@ -314,6 +493,10 @@ public class Warehouse implements Serializable {
 	void addTransaction(CreditSale transaction) {
 		_transactions.put(transaction.getKey(), transaction);
 		transaction.getPartner().addTransaction(transaction);
+
+		// Keep track of the amount owed.
+		_receivables.register(transaction);
+		_repricing.schedule(transaction, getDate());
 	}
 
 	/**
@@ -334,7 +517,70 @@ public class Warehouse implements Serializable {
 	 * @return true if the transaction with the given key is registered.
 	 */
 	boolean isRegisteredTransaction(int key) {
-		return _transactions.containsKey(key);
+		return _transactions.containsKey(key) || (_archive != null && _archive.contains(key));
+	}
+
+	/**
+	 * Leaves the transactions of a snapshot to be read on demand.
+	 *
+	 * @param archive the snapshot's transactions.
+	 */
+	void setArchive(TransactionArchive archive) {
+		_archive = archive;
+	}
+
+	/**
+	 * @return the transactions of a snapshot not yet read (null, if all have been read).
+	 */
+	TransactionArchive getArchive() {
+		return _archive;
+	}
+
+	/**
+	 * Closes the snapshot file of the transactions not yet read, once the warehouse is discarded.
+	 * Those transactions can no longer be read.
+	 */
+	void closeArchive() {
+		if (_archive == null)
+			return;
+
+		try {
+			_archive.close();
+		} catch (IOException e) {
+			// The file is only read: closing it can't lose anything.
+		}
+		_archive = null;
+	}
+
+	/**
+	 * Adds a transaction read from a snapshot to the warehouse's collection
+	 * and to its partner's history.
+	 *
+	 * @param transaction the transaction to add.
+	 */
+	void restoreTransaction(Transaction transaction) {
+		_transactions.put(transaction.getKey(), transaction);
+		transaction.getPartner().restoreTransaction(transaction);
+
+		// Keep track of the amount owed.
+		if (transaction instanceof CreditSale && !transaction.isPaid()) {
+			_receivables.register((CreditSale) transaction);
+			_repricing.schedule((CreditSale) transaction, getDate());
+		}
+	}
+
+	/**
+	 * Reads all transactions of the snapshot not yet read.
+	 */
+	void loadArchivedTransactions() {
+		if (_archive != null) {
+			_archive.loadAll();
+			_archive = null;
+
+			for (Partner partner: _partners.values()) {
+				partner.loadHistory();
+			}
+		}
 	}
 
 	/**
@@ -344,22 +590,28 @@ public class Warehouse implements Serializable {
 	 * @param product the transaction's product.
 	 * @param amount  the transaction's product amount.
 	 * @param price   the transaction's product unit price.
+	 * @return the key of the new transaction.
 	 */
-	void registerAcquisition(Partner partner, Product product, int amount, double price) {
+	int registerAcquisition(Partner partner, Product product, int amount, double price) {
 
 		// Notify interested entities.
 		if (!product.isNew() && !product.hasStock()) {
-			product.sendNotification(new Notification("NEW", product, price));
+			product.sendNotification(new Notification("NEW", product, price), _partners.values());
 		} else if (product.getLowestPrice() >= price) {
-			product.sendNotification(new Notification("BARGAIN", product, price));
+			product.sendNotification(new Notification("BARGAIN", product, price), _partners.values());
 		}
 
 		// Add transaction to warehouse collection.
-		Acquisition transaction = new Acquisition(_nextTransactionId++, partner, product, amount, Date.now(), price * amount);
+		Acquisition transaction = new Acquisition(newTransactionId(), partner, product, amount, new Date(getDate()), price * amount);
 		addTransaction(transaction);
 
+		// Add new stock of product.
+		product.add(amount, partner, price);
+
 		// Decrease warehouse's balance by the amount paid.
 		decreaseBalance(transaction.getPrice());
+
+		return transaction.getKey();
 	}
 
 	/**
@@ -369,28 +621,23 @@ public class Warehouse implements Serializable {
 	 * @param paymentDeadline the transaction's payment deadline.
 	 * @param product         the transaction's product.
 	 * @param amount          the transaction's product amount.
+	 * @return the key of the new transaction.
 	 * @throws NoProductStockException if there's not enough product stock.
 	 */
-	void registerCreditSale(Partner partner, int paymentDeadline, Product product, int amount) throws NoProductStockException {
+	int registerCreditSale(Partner partner, int paymentDeadline, Product product, int amount) throws NoProductStockException {
 
 		// Check if aggregation is possible.
-		try {
-			product.checkAggregation(amount);
-			for (int i = 0; i < amount; i++) {
-				product.aggregate();
-			}
-		} catch (NoProductStockException e) {
-			throw e;
-		}
+		product.checkAggregation(amount);
 
 		// Check for product stock.
 		if (product.getStock() < amount) {
 			throw new NoProductStockException(product.getKey(), amount, product.getStock());
 		}
 
-		addTransaction(new CreditSale(_nextTransactionId++, partner, product, amount, new Date(paymentDeadline)));
+		CreditSale transaction = new CreditSale(newTransactionId(), partner, product, amount, new Date(paymentDeadline));
+		addTransaction(transaction);
 
-		updateAccountingBalance();
+		return transaction.getKey();
 	}
 
 	/**
@@ -400,8 +647,14 @@ public class Warehouse implements Serializable {
 	 */
 	void payCreditSale(CreditSale transaction) {
 		if (!transaction.isPaid()) {
+			Classification classification = transaction.getPartner().getStatus().getClassification();
+
+			_receivables.settle(transaction);
 			transaction.pay();
 			increaseBalance(transaction.getPrice());
+
+			// The partner's status may have changed.
+			updateUnpaidSales(transaction.getPartner(), classification);
 		}
 	}
 
@@ -411,22 +664,45 @@ public class Warehouse implements Serializable {
 	 * @param partner the transaction's partner.
 	 * @param product the transaction's product.
 	 * @param amount  the transaction's product amount.
+	 * @return the key of the new transaction (negative, if the product can't be disaggregated).
 	 *
 	 * @throws NoProductStockException if there's not enough product stock.
 	 */
-	public void registerBreakdownSale(Partner partner, Product product, int amount) throws NoProductStockException {
+	public int registerBreakdownSale(Partner partner, Product product, int amount) throws NoProductStockException {
 
 		// Check if the product can be disaggregated.
 		if (!product.canBeDisaggregated()) {
-			return;
+			return -1;
 		}
 
+		Classification classification = partner.getStatus().getClassification();
+
 		// Register breakdown sale.
-		BreakdownSale transaction = new BreakdownSale(_nextTransactionId++, partner, product, amount, Date.now());
+		BreakdownSale transaction = new BreakdownSale(newTransactionId(), partner, product, amount, new Date(getDate()));
 		addTransaction(transaction);
 
 		// Increase warehouse's balance.
 		increaseBalance(transaction.getPrice());
+
+		// The partner's status may have changed.
+		updateUnpaidSales(partner, classification);
+
+		return transaction.getKey();
+	}
+
+	/**
+	 * Updates the value and the repricing dates of the partner's unpaid credit sales,
+	 * if the partner's classification changed (prices only depend on it).
+	 *
+	 * @param partner        the partner.
+	 * @param classification the partner's classification before the change.
+	 */
+	private void updateUnpaidSales(Partner partner, Classification classification) {
+		if (partner.getStatus().getClassification() == classification)
+			return;
+
+		_receivables.reprice(partner);
+		_repricing.reschedule(_receivables.getUnpaidSales(partner), getDate());
 	}
 
 	/**
@@ -438,6 +714,9 @@ public class Warehouse implements Serializable {
 		if (!isRegisteredTransaction(key))
 			throw new UnknownTransactionException(key);
 
+		if (!_transactions.containsKey(key))
+			_archive.load(key);
+
 		return _transactions.get(key);
 	}
 
@@ -445,15 +724,79 @@ public class Warehouse implements Serializable {
 	 * @return a collection with all partners.
 	 */
 	public Collection<Transaction> getTransactions() {
+		loadArchivedTransactions();
+		return new ArrayList<Transaction>(_transactions.values());
+	}
+
+	/**
+	 * @return the transactions read into the warehouse, leaving those of a snapshot not yet read.
+	 */
+	Collection<Transaction> getLoadedTransactions() {
 		return new ArrayList<Transaction>(_transactions.values());
 	}
 
 	/**
 	 * Update unpaid credit sale prices.
+	 * Only the sales whose price may have changed since the last update are visited.
 	 */
 	public void updateCreditSalePrices() {
-		for (Transaction transaction: getTransactions()) {
-			transaction.updatePrice();
+		for (CreditSale sale: _repricing.advance(getDate())) {
+			_receivables.reprice(sale);
+		}
+	}
+
+	/**
+	 * Saves the warehouse with Java serialization, as it was saved before snapshots
+	 * were introduced. All its transactions must have been read.
+	 *
+	 * @param out the stream to write to.
+	 * @throws IOException if the warehouse can't be written.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+
+		// Products were saved with the entities interested in them.
+		for (Product product: _products.values()) {
+			product.saveNotifiables(_partners.values());
+		}
+
+		fields.put("_date", new Date(getDate()));
+		fields.put("_accountingBalance", getAccountingBalance());
+		fields.put("_availableBalance", _availableBalance);
+		fields.put("_products", new TreeMap<>(_products));
+		fields.put("_transactions", new HashMap<>(_transactions));
+		fields.put("_nextTransactionId", _nextTransactionId);
+		fields.put("_partners", new TreeMap<>(_partners));
+		out.writeFields();
+	}
+
+	/**
+	 * Restores a serialized warehouse, only read to be converted into a snapshot
+	 * (see {@link WarehouseManager#load(String)}): its indexes, ledger and schedule
+	 * aren't restored, as reading the snapshot rebuilds them.
+	 *
+	 * @param in the stream to read from.
+	 * @throws IOException            if the warehouse can't be read.
+	 * @throws ClassNotFoundException if a serialized class is unknown.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+
+		_clock = new Clock(((Date) fields.get("_date", null)).getDays());
+		_availableBalance = fields.get("_availableBalance", 0.0);
+		_products = (NavigableMap<String, Product>) fields.get("_products", null);
+		_transactions = (Map<Integer, Transaction>) fields.get("_transactions", null);
+		_nextTransactionId = fields.get("_nextTransactionId", 0);
+		_partners = (NavigableMap<String, Partner>) fields.get("_partners", null);
+
+		// Credit sale prices depend on the current date.
+		for (Partner partner: _partners.values()) {
+			partner.setClock(_clock);
+		}
+
+		for (Product product: _products.values()) {
+			product.restoreOptOuts(_partners.values());
 		}
 	}
 
@@ -461,15 +804,18 @@ public class Warehouse implements Serializable {
 	 * Imports entities from a text file.
 	 *
 	 * @param txtfile filename to be loaded.
+	 * @return the number of lines imported per second.
 	 * @throws IOException
 	 * @throws BadEntryException
 	 * @throws UnknownPartnerException
 	 * @throws DuplicatePartnerException
 	 * @throws UnknownProductException
 	 */
-	void importFile(String txtfile) throws IOException, BadEntryException, UnknownPartnerException, DuplicatePartnerException, UnknownProductException {
+	double importFile(String txtfile) throws IOException, BadEntryException, UnknownPartnerException, DuplicatePartnerException, UnknownProductException {
+		Parser parser = new Parser(this);
+
 		try {
-			new Parser(this).parseFile(txtfile);
+			parser.parseFile(txtfile);
 		} catch (IOException e) {
 			throw e;
 		} catch (BadEntryException e) {
@@ -480,6 +826,8 @@ public class Warehouse implements Serializable {
 		for (Partner partner: _partners.values()) {
 			partner.getNotifications();
 		}
+
+		return parser.getLinesPerSecond();
 	}
 
 }
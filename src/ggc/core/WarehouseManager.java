@@ -1,17 +1,26 @@
 package ggc.core;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import java.io.Serializable;
 import java.io.FileInputStream;
 import java.io.ObjectInputStream;
-import java.io.FileOutputStream;
 import java.io.ObjectOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 import ggc.core.exception.BadEntryException;
 import ggc.core.exception.ImportFileException;
@@ -23,15 +32,72 @@ import ggc.core.exception.DuplicatePartnerException;
 import ggc.core.exception.UnknownProductException;
 import ggc.core.exception.UnknownTransactionException;
 import ggc.core.exception.NoProductStockException;
+import ggc.core.Metrics.Operation;
 
 /** Façade for access. */
 public class WarehouseManager {
 
+	/** Number of journaled changes after which a new snapshot is saved. */
+	private static final int CHECKPOINT_INTERVAL = 10000;
+
 	/** Name of file storing current warehouse. */
 	private String _filename = "";
 
+	/** Clock of the warehouse, kept when another warehouse is loaded. */
+	private final Clock _clock;
+
 	/** The warehouse itself. */
-	private Warehouse _warehouse = new Warehouse();
+	private Warehouse _warehouse;
+
+	/** Journal of the changes since the last save (null, if journaling is disabled). */
+	private volatile Journal _journal;
+
+	/** Whether the transaction history of a loaded snapshot is read on demand. */
+	private boolean _lazyLoading = true;
+
+	/** Locks over the warehouse (null, unless in concurrent mode). */
+	private StripedLock _locks;
+
+	/** Shards running the operations on products (null, unless in sharded mode). */
+	private ShardedEngine _engine;
+
+	/** Number of lines imported per second by the last import. */
+	private volatile double _importRate;
+
+	/** Sequence number of the last change journaled by each thread and not yet on disk (0, if none). */
+	private final ThreadLocal<long[]> _journaled = ThreadLocal.withInitial(() -> new long[1]);
+
+	/** Calls, failures and latencies of the operations, and gauges of the warehouse. */
+	private final Metrics _metrics;
+
+	/**
+	 * Creates a manager of a new warehouse, with its own clock.
+	 */
+	public WarehouseManager() {
+		this(new Clock());
+	}
+
+	/**
+	 * Creates a manager of a new warehouse, keeping time with the given clock.
+	 * Warehouses loaded later keep time with the same clock, set to their saved date.
+	 *
+	 * @param clock the warehouse's clock.
+	 */
+	public WarehouseManager(Clock clock) {
+		_clock = clock;
+		_warehouse = new Warehouse(clock);
+
+		// Gauges read whichever warehouse is loaded.
+		_metrics = new Metrics();
+		_metrics.addGauge("products", () -> _warehouse.countProducts());
+		_metrics.addGauge("batches", () -> _warehouse.countBatches());
+		_metrics.addGauge("partners", () -> _warehouse.countPartners());
+		_metrics.addGauge("unpaidSales", () -> _warehouse.countUnpaidSales());
+		_metrics.addGauge("unreadNotifications", () -> _warehouse.countUnreadNotifications());
+		_metrics.addGauge("stockUnits", () -> _warehouse.getStockUnits());
+		_metrics.addGauge("stockValue", () -> Math.round(_warehouse.getStockValue()));
+		_metrics.addGauge("importLinesPerSecond", () -> Math.round(getImportRate()));
+	}
 
 	/**
 	 * @return the associated file name.
@@ -56,6 +122,20 @@ public class WarehouseManager {
 		return _warehouse.getDate();
 	}
 
+	/**
+	 * @return the warehouse's clock.
+	 */
+	public Clock getClock() {
+		return _clock;
+	}
+
+	/**
+	 * @return the metrics of the manager's operations.
+	 */
+	public Metrics getMetrics() {
+		return _metrics;
+	}
+
 	/**
 	 * Forwards time.
 	 *
@@ -63,21 +143,46 @@ public class WarehouseManager {
 	 * @throws InvalidDateIncrementException if the amount is not positive.
 	 */
 	public void forwardDate(int increment) throws InvalidDateIncrementException {
-		_warehouse.forwardDate(increment);
+		_metrics.measure(Operation.FORWARD_DATE, () -> {
+			checkJournal();
+
+			lockExclusive();
+			try {
+				_warehouse.forwardDate(increment);
+				journal("DATE", "" + increment);
+			} finally {
+				unlockExclusive();
+			}
+			commit();
+		});
 	}
 
 	/**
 	 * @return the current warehouse's available balance.
 	 */
 	public double getAvailableBalance() {
-		return _warehouse.getAvailableBalance();
+		return _metrics.measure(Operation.GET_AVAILABLE_BALANCE, () -> _warehouse.getAvailableBalance());
 	}
 
 	/**
 	 * @return the current warehouse's accounting balance.
 	 */
 	public double getAccountingBalance() {
-		return _warehouse.getAccountingBalance();
+		return _metrics.measure(Operation.GET_ACCOUNTING_BALANCE, () -> _warehouse.getAccountingBalance());
+	}
+
+	/**
+	 * @return the number of units in stock, over all products.
+	 */
+	public long getStockUnits() {
+		return _metrics.measure(Operation.GET_STOCK_UNITS, () -> _warehouse.getStockUnits());
+	}
+
+	/**
+	 * @return the value of the units in stock, at their batch prices.
+	 */
+	public double getStockValue() {
+		return _metrics.measure(Operation.GET_STOCK_VALUE, () -> _warehouse.getStockValue());
 	}
 
 	/**
@@ -86,7 +191,18 @@ public class WarehouseManager {
 	 * @param id the product id.
 	 */
 	public void registerSimpleProduct(String id) {
-		_warehouse.registerSimpleProduct(id);
+		_metrics.measure(Operation.REGISTER_SIMPLE_PRODUCT, () -> {
+			checkJournal();
+
+			lockExclusive();
+			try {
+				_warehouse.registerSimpleProduct(id);
+				journal("SIMPLE", id);
+			} finally {
+				unlockExclusive();
+			}
+			commit();
+		});
 	}
 
 	/**
@@ -98,14 +214,35 @@ public class WarehouseManager {
 	 * @param quantities a list of the quantities of the products that compose the aggregate product.
 	 */
 	public void registerAggregateProduct(String id, double aggravation, Collection<String> productIds, List<Integer> quantities)throws UnknownProductException {
+		_metrics.measure(Operation.REGISTER_AGGREGATE_PRODUCT, () -> {
+			checkJournal();
 
-		List<Product> products = new ArrayList<>();
+			lockExclusive();
+			try {
+				List<Product> products = new ArrayList<>();
 
-		for (String productId: productIds) {
-			products.add(getProduct(productId));
-		}
+				for (String productId: productIds) {
+					products.add(getProduct(productId));
+				}
 
-		_warehouse.registerAggregateProduct(id, aggravation, products, quantities);
+				_warehouse.registerAggregateProduct(id, aggravation, products, quantities);
+
+				List<String> fields = new ArrayList<>();
+				fields.add("AGGREGATE");
+				fields.add(id);
+				fields.add("" + aggravation);
+				for (Product product: products) {
+					fields.add(product.getKey());
+				}
+				for (Integer quantity: quantities) {
+					fields.add("" + quantity);
+				}
+				journal(fields.toArray(new String[0]));
+			} finally {
+				unlockExclusive();
+			}
+			commit();
+		});
 	}
 
 	/**
@@ -116,7 +253,7 @@ public class WarehouseManager {
 	 * @throws UnknownProductException if there's no registered product with the given key.
 	 */
 	public Product getProduct(String id) throws UnknownProductException {
-		return _warehouse.getProduct(id);
+		return _metrics.measure(Operation.GET_PRODUCT, () -> _warehouse.getProduct(id));
 	}
 
 
@@ -124,14 +261,48 @@ public class WarehouseManager {
 	 * @return a collection with all registered products.
 	 */
 	public Collection<Product> getProducts() {
-		return _warehouse.getProducts();
+		return _metrics.measure(Operation.GET_PRODUCTS, () -> _warehouse.getProducts());
 	}
 
 	/**
+	 * Returns a collection of all batches. In concurrent mode, batches are read from the
+	 * warehouse's index while other threads change them: each batch is listed as it
+	 * is at some point, but batches are not all listed at the same point.
+	 *
 	 * @return a collection with all batches.
 	 */
 	public Collection<Batch> getBatches() {
-		return _warehouse.getBatches();
+		return _metrics.measure(Operation.GET_BATCHES, () -> {
+			lockShared();
+			try {
+				return _warehouse.getBatches();
+			} finally {
+				unlockShared();
+			}
+		});
+	}
+
+	/**
+	 * Returns a page of all batches, sorted by their natural order, so that they can be
+	 * listed a page at a time. Each page is read at once; batches added or emptied between
+	 * pages appear in, or are missing from, the following pages only.
+	 *
+	 * @param after the last batch of the previous page (null, for the first page).
+	 * @param limit the highest number of batches of the page.
+	 * @return the batches following the given one (none, after the last page).
+	 */
+	public List<Batch> getBatchesAfter(Batch after, int limit) {
+		return _metrics.measure(Operation.GET_BATCHES_AFTER, () -> {
+			if (limit < 1)
+				throw new IllegalArgumentException("page limit must be positive: " + limit);
+
+			lockShared();
+			try {
+				return _warehouse.getBatchesAfter(after, limit);
+			} finally {
+				unlockShared();
+			}
+		});
 	}
 
 	/**
@@ -142,7 +313,20 @@ public class WarehouseManager {
 	 * @throws UnknownProductException if there's no registered product with the given identifier.
 	 */
 	public Collection<Batch> getBatchesByProduct(String key) throws UnknownProductException {
-		return getProduct(key).getBatches();
+		return _metrics.measure(Operation.GET_BATCHES_BY_PRODUCT, () -> {
+			lockShared();
+			try {
+				Product product = getProduct(key);
+				int[] stripes = lockStripes(Arrays.asList(product));
+				try {
+					return product.getBatches();
+				} finally {
+					unlockStripes(stripes);
+				}
+			} finally {
+				unlockShared();
+			}
+		});
 	}
 
 	/**
@@ -153,16 +337,24 @@ public class WarehouseManager {
 	 * @throws UnknownPartnerException if there's no registered partner with the given identifier.
 	 */
 	public Collection<Batch> getBatchesByPartner(String key) throws UnknownPartnerException {
-		return getPartner(key).getBatches();
+		return _metrics.measure(Operation.GET_BATCHES_BY_PARTNER, () -> getPartner(key).getBatches());
 	}
 
 	/**
 	 * Returns a collection of all batches under the specified price.
+	 * In concurrent mode, batches are read as by {@link #getBatches()}.
 	 *
 	 * @param price the price to compare to.
 	 */
 	public Collection<Batch> getBatchesUnderGivenPrice(double price) {
-		return _warehouse.getBatchesUnderGivenPrice(price);
+		return _metrics.measure(Operation.GET_BATCHES_UNDER_GIVEN_PRICE, () -> {
+			lockShared();
+			try {
+				return _warehouse.getBatchesUnderGivenPrice(price);
+			} finally {
+				unlockShared();
+			}
+		});
 	}
 
 	/**
@@ -174,7 +366,18 @@ public class WarehouseManager {
 	 * @throws DuplicatePartnerException if there's already a registered partner with the given key.
 	 */
 	public void registerPartner(String key, String name, String address) throws DuplicatePartnerException {
-		_warehouse.registerPartner(key, name, address);
+		_metrics.measure(Operation.REGISTER_PARTNER, () -> {
+			checkJournal();
+
+			lockExclusive();
+			try {
+				_warehouse.registerPartner(key, name, address);
+				journal("PARTNER", key, name, address);
+			} finally {
+				unlockExclusive();
+			}
+			commit();
+		});
 	}
 
 	/**
@@ -185,24 +388,90 @@ public class WarehouseManager {
 	 * @throws UnknownPartnerException if there's no partner with the given key.
 	 */
 	public Partner getPartner(String key) throws UnknownPartnerException {
-		return _warehouse.getPartner(key);
+		return _metrics.measure(Operation.GET_PARTNER, () -> _warehouse.getPartner(key));
+	}
+
+	/**
+	 * Changes how a partner's notifications are delivered.
+	 * Delivery methods aren't saved, so the change isn't journaled either.
+	 *
+	 * @param key    the partner key.
+	 * @param method the new delivery method.
+	 * @throws UnknownPartnerException if the partner isn't registered.
+	 */
+	public void setNotificationDeliveryMethod(String key, NotificationDeliveryMethod method) throws UnknownPartnerException {
+		_metrics.measure(Operation.SET_NOTIFICATION_DELIVERY_METHOD, () -> {
+			lockExclusive();
+			try {
+				getPartner(key).setDeliveryMethod(method);
+			} finally {
+				unlockExclusive();
+			}
+		});
+	}
+
+	/**
+	 * Changes how many unread notifications a partner keeps.
+	 *
+	 * @param key        the partner key.
+	 * @param capacity   the maximum number of unread notifications kept (the oldest are discarded).
+	 * @param coalescing whether a notification of the same type and product as an unread one replaces it.
+	 * @throws UnknownPartnerException if the partner isn't registered.
+	 * @throws IllegalArgumentException if the capacity isn't positive.
+	 */
+	public void configureNotificationInbox(String key, int capacity, boolean coalescing) throws UnknownPartnerException {
+		_metrics.measure(Operation.CONFIGURE_NOTIFICATION_INBOX, () -> {
+			checkJournal();
+
+			NotificationInbox.checkCapacity(capacity);
+
+			lockExclusive();
+			try {
+				getPartner(key).configureInbox(capacity, coalescing);
+				journal("INBOX", key, "" + capacity, "" + coalescing);
+			} finally {
+				unlockExclusive();
+			}
+			commit();
+		});
 	}
 
 	/**
 	 * @return a collection with all partners
 	 */
 	public Collection<Partner> getPartners() {
-		return _warehouse.getPartners();
+		return _metrics.measure(Operation.GET_PARTNERS, () -> _warehouse.getPartners());
 	}
 
 	/**
 	 * Return a collection with all partner's notifications.
+	 * In concurrent mode, acquisitions by other partners deliver notifications without
+	 * locking the partner: the partner's inbox is synchronized, so each notification is
+	 * either read now or kept for the next reading. A notification delivered while the
+	 * partner reads may be journaled on the other side of the reading, in which case
+	 * replaying the journal reads or keeps it the other way.
 	 *
 	 * @param key the partner's key.
 	 * @return a collection of the partner's notifications.
 	 */
 	public Collection<Notification> getPartnerNotifications(String key) throws UnknownPartnerException {
-		return getPartner(key).getNotifications();
+		return _metrics.measure(Operation.GET_PARTNER_NOTIFICATIONS, () -> {
+			checkJournal();
+
+			Collection<Notification> notifications;
+
+			lockShared();
+			try {
+				notifications = getPartner(key).getNotifications();
+
+				// Reading the notifications clears them.
+				journal("NOTIFICATIONS", key);
+			} finally {
+				unlockShared();
+			}
+			commit();
+			return notifications;
+		});
 	}
 
 	/**
@@ -214,14 +483,40 @@ public class WarehouseManager {
 	 * @throws UnknownProductException if there's no product with the given key.
 	 */
 	public void toggleNotifications(String partnerKey, String productKey) throws UnknownPartnerException, UnknownProductException {
-		Product product = getProduct(productKey);
-		Partner partner = getPartner(partnerKey);
+		_metrics.<UnknownPartnerException, UnknownProductException, RuntimeException>measure(Operation.TOGGLE_NOTIFICATIONS, () -> {
+			checkJournal();
 
-		if (product.isRegisteredNotifiable(partner)) {
-			getProduct(productKey).removeNotifiable(partner);
-		} else {
-			getProduct(productKey).addNotifiable(partner);
-		}
+			try {
+				if (runInShard(productKey, () -> { toggleNotifications(partnerKey, productKey); return null; }))
+					return;
+			} catch (UnknownPartnerException | UnknownProductException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+
+			lockShared();
+			try {
+				Product product = getProduct(productKey);
+				Partner partner = getPartner(partnerKey);
+
+				int[] stripes = lockStripes(Arrays.asList(partner, product));
+				try {
+					if (product.isRegisteredNotifiable(partner)) {
+						product.removeNotifiable(partner);
+					} else {
+						product.addNotifiable(partner);
+					}
+
+					journal("TOGGLE", partnerKey, productKey);
+				} finally {
+					unlockStripes(stripes);
+				}
+			} finally {
+				unlockShared();
+			}
+			commit();
+		});
 	}
 
 	/**
@@ -232,7 +527,20 @@ public class WarehouseManager {
 	 * @throws UnknownPartnerException if there's no partner with the given key.
 	 */
 	public Collection<Acquisition> getAcquisitionsByPartner(String key) throws UnknownPartnerException {
-		return getPartner(key).getAcquisitionTransactions();
+		return _metrics.measure(Operation.GET_ACQUISITIONS_BY_PARTNER, () -> {
+			lockShared();
+			try {
+				Partner partner = getPartner(key);
+				int[] stripes = lockStripes(Arrays.asList(partner));
+				try {
+					return snapshot(partner.getAcquisitionTransactions());
+				} finally {
+					unlockStripes(stripes);
+				}
+			} finally {
+				unlockShared();
+			}
+		});
 	}
 
 	/**
@@ -243,7 +551,20 @@ public class WarehouseManager {
 	 * @throws UnknownPartnerException if there's no partner with the given key.
 	 */
 	public Collection<Sale> getSalesByPartner(String key) throws UnknownPartnerException {
-		return getPartner(key).getSaleTransactions();
+		return _metrics.measure(Operation.GET_SALES_BY_PARTNER, () -> {
+			lockShared();
+			try {
+				Partner partner = getPartner(key);
+				int[] stripes = lockStripes(Arrays.asList(partner));
+				try {
+					return snapshot(partner.getSaleTransactions());
+				} finally {
+					unlockStripes(stripes);
+				}
+			} finally {
+				unlockShared();
+			}
+		});
 	}
 
 	/**
@@ -254,7 +575,128 @@ public class WarehouseManager {
 	 * @throws UnknownPartnerException if there's no partner with the given key.
 	 */
 	public Collection<Sale> getPartnerPaidTransactions(String key) throws UnknownPartnerException {
-		return getPartner(key).getPaidTransactions();
+		return _metrics.measure(Operation.GET_PARTNER_PAID_TRANSACTIONS, () -> {
+			lockShared();
+			try {
+				Partner partner = getPartner(key);
+				int[] stripes = lockStripes(Arrays.asList(partner));
+				try {
+					return snapshot(partner.getPaidTransactions());
+				} finally {
+					unlockStripes(stripes);
+				}
+			} finally {
+				unlockShared();
+			}
+		});
+	}
+
+	/**
+	 * Queries the registered products, sorted by key.
+	 * The products are streamed straight from the warehouse's registry, going through
+	 * those before the last one read only, so reading the first rows of a long listing
+	 * costs as much as those rows. In concurrent mode, products registered while the
+	 * stream is read may or may not be part of it.
+	 *
+	 * @param offset the number of matching products to skip.
+	 * @param limit  the highest number of products to read.
+	 * @param filter the condition products must meet (null, for all products).
+	 * @return a lazy stream of the products.
+	 */
+	public Stream<Product> queryProducts(int offset, int limit, Predicate<? super Product> filter) {
+		return _metrics.measure(Operation.QUERY_PRODUCTS, () -> query(_warehouse.streamProducts(), offset, limit, filter));
+	}
+
+	/**
+	 * Queries the registered partners, sorted by key, as {@link #queryProducts(int, int, Predicate)}.
+	 *
+	 * @param offset the number of matching partners to skip.
+	 * @param limit  the highest number of partners to read.
+	 * @param filter the condition partners must meet (null, for all partners).
+	 * @return a lazy stream of the partners.
+	 */
+	public Stream<Partner> queryPartners(int offset, int limit, Predicate<? super Partner> filter) {
+		return _metrics.measure(Operation.QUERY_PARTNERS, () -> query(_warehouse.streamPartners(), offset, limit, filter));
+	}
+
+	/**
+	 * Queries all batches, sorted by their natural order, streamed from the warehouse's index.
+	 * In concurrent mode, batches are read as by {@link #getBatches()}.
+	 *
+	 * @param offset the number of matching batches to skip.
+	 * @param limit  the highest number of batches to read.
+	 * @param filter the condition batches must meet (null, for all batches).
+	 * @return a lazy stream of the batches.
+	 */
+	public Stream<Batch> queryBatches(int offset, int limit, Predicate<? super Batch> filter) {
+		return _metrics.measure(Operation.QUERY_BATCHES, () -> query(_warehouse.streamBatches(), offset, limit, filter));
+	}
+
+	/**
+	 * Queries the batches holding the specified product, sorted by their natural order.
+	 * Only the product's batches are read from the warehouse's index.
+	 *
+	 * @param key    the product key.
+	 * @param offset the number of matching batches to skip.
+	 * @param limit  the highest number of batches to read.
+	 * @param filter the condition batches must meet (null, for all batches).
+	 * @return a lazy stream of the batches.
+	 * @throws UnknownProductException if there's no registered product with the given identifier.
+	 */
+	public Stream<Batch> queryBatchesByProduct(String key, int offset, int limit, Predicate<? super Batch> filter)
+			throws UnknownProductException {
+		return _metrics.measure(Operation.QUERY_BATCHES_BY_PRODUCT,
+			() -> query(_warehouse.streamBatches(getProduct(key)), offset, limit, filter));
+	}
+
+	/**
+	 * Queries the batches supplied by the specified partner, sorted by their natural order.
+	 *
+	 * @param key    the partner key.
+	 * @param offset the number of matching batches to skip.
+	 * @param limit  the highest number of batches to read.
+	 * @param filter the condition batches must meet (null, for all batches).
+	 * @return a lazy stream of the batches.
+	 * @throws UnknownPartnerException if there's no partner with the given key.
+	 */
+	public Stream<Batch> queryBatchesByPartner(String key, int offset, int limit, Predicate<? super Batch> filter)
+			throws UnknownPartnerException {
+		return _metrics.measure(Operation.QUERY_BATCHES_BY_PARTNER,
+			() -> query(getPartner(key).getBatches().stream(), offset, limit, filter));
+	}
+
+	/**
+	 * Queries the partner's acquisitions, in order of registration.
+	 * The partner's history is read from its snapshot first, if not read yet.
+	 *
+	 * @param key    the partner key.
+	 * @param offset the number of matching acquisitions to skip.
+	 * @param limit  the highest number of acquisitions to read.
+	 * @param filter the condition acquisitions must meet (null, for all acquisitions).
+	 * @return a lazy stream of the acquisitions.
+	 * @throws UnknownPartnerException if there's no partner with the given key.
+	 */
+	public Stream<Acquisition> queryAcquisitionsByPartner(String key, int offset, int limit,
+			Predicate<? super Acquisition> filter) throws UnknownPartnerException {
+		return _metrics.measure(Operation.QUERY_ACQUISITIONS_BY_PARTNER,
+			() -> query(getHistory(key).getAcquisitionTransactions().stream(), offset, limit, filter));
+	}
+
+	/**
+	 * Queries the partner's sales, in order of registration, as
+	 * {@link #queryAcquisitionsByPartner(String, int, int, Predicate)}.
+	 *
+	 * @param key    the partner key.
+	 * @param offset the number of matching sales to skip.
+	 * @param limit  the highest number of sales to read.
+	 * @param filter the condition sales must meet (null, for all sales).
+	 * @return a lazy stream of the sales.
+	 * @throws UnknownPartnerException if there's no partner with the given key.
+	 */
+	public Stream<Sale> querySalesByPartner(String key, int offset, int limit, Predicate<? super Sale> filter)
+			throws UnknownPartnerException {
+		return _metrics.measure(Operation.QUERY_SALES_BY_PARTNER,
+			() -> query(getHistory(key).getSaleTransactions().stream(), offset, limit, filter));
 	}
 
 	/**
@@ -269,12 +711,36 @@ public class WarehouseManager {
 	 * @throws UnknownProductException if there's no registered product with the given key.
 	 */
 	public void registerAcquisitionTransaction(String partnerKey, String productKey, int amount, double price) throws UnknownPartnerException, UnknownProductException {
+		_metrics.<UnknownPartnerException, UnknownProductException, RuntimeException>measure(Operation.REGISTER_ACQUISITION_TRANSACTION, () -> {
+			checkJournal();
 
-		// Check if partner and product are registered.
-		Partner partner = getPartner(partnerKey);
-		Product product = getProduct(productKey);
+			try {
+				if (runInShard(productKey, () -> { registerAcquisitionTransaction(partnerKey, productKey, amount, price); return null; }))
+					return;
+			} catch (UnknownPartnerException | UnknownProductException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
 
-		_warehouse.registerAcquisition(partner, product, amount, price);
+			lockShared();
+			try {
+				// Check if partner and product are registered.
+				Partner partner = getPartner(partnerKey);
+				Product product = getProduct(productKey);
+
+				int[] stripes = lockStripes(Arrays.asList(partner, product));
+				try {
+					int key = _warehouse.registerAcquisition(partner, product, amount, price);
+					journal("ACQUISITION", partnerKey, productKey, "" + amount, "" + price, "" + key);
+				} finally {
+					unlockStripes(stripes);
+				}
+			} finally {
+				unlockShared();
+			}
+			commit();
+		});
 	}
 
 	/**
@@ -290,12 +756,37 @@ public class WarehouseManager {
 	 * @throws NoProductStockException if there's not enough product stock.
 	 */
 	public void registerSaleTransaction(String partnerKey, int paymentDeadline, String productKey, int amount) throws UnknownPartnerException, UnknownProductException, NoProductStockException {
+		_metrics.<UnknownPartnerException, UnknownProductException, NoProductStockException>measure(Operation.REGISTER_SALE_TRANSACTION, () -> {
+			checkJournal();
+
+			try {
+				if (runInShard(productKey, () -> { registerSaleTransaction(partnerKey, paymentDeadline, productKey, amount); return null; }))
+					return;
+			} catch (UnknownPartnerException | UnknownProductException | NoProductStockException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
 
-		// Check if partner and product are registered.
-		Partner partner = getPartner(partnerKey);
-		Product product = getProduct(productKey);
+			lockShared();
+			try {
+				// Check if partner and product are registered.
+				Partner partner = getPartner(partnerKey);
+				Product product = getProduct(productKey);
 
-		_warehouse.registerCreditSale(partner, paymentDeadline, product, amount);
+				// Selling an aggregate product may aggregate it from its components.
+				int[] stripes = lockStripes(getEntities(partner, product));
+				try {
+					int key = _warehouse.registerCreditSale(partner, paymentDeadline, product, amount);
+					journal("SALE", partnerKey, "" + paymentDeadline, productKey, "" + amount, "" + key);
+				} finally {
+					unlockStripes(stripes);
+				}
+			} finally {
+				unlockShared();
+			}
+			commit();
+		});
 	}
 
 	/**
@@ -305,11 +796,27 @@ public class WarehouseManager {
 	 * @throws UnknownTransactionException if there's no transaction with the given key.
 	 */
 	public void receivePayment(int key) throws UnknownTransactionException {
-		Transaction transaction = getTransaction(key);
+		_metrics.measure(Operation.RECEIVE_PAYMENT, () -> {
+			checkJournal();
 
-		if (transaction instanceof CreditSale) {
-			_warehouse.payCreditSale((CreditSale) getTransaction(key));
-		}
+			lockShared();
+			try {
+				Transaction transaction = getTransaction(key);
+
+				if (transaction instanceof CreditSale) {
+					int[] stripes = lockStripes(Arrays.asList(transaction.getPartner()));
+					try {
+						_warehouse.payCreditSale((CreditSale) transaction);
+						journal("PAYMENT", "" + key);
+					} finally {
+						unlockStripes(stripes);
+					}
+				}
+			} finally {
+				unlockShared();
+			}
+			commit();
+		});
 	}
 
 	/**
@@ -324,12 +831,40 @@ public class WarehouseManager {
 	 * @throws NoProductStockException if there's not enough product stock.
 	 */
 	public void registerBreakdownTransaction(String partnerKey, String productKey, int amount) throws UnknownPartnerException, UnknownProductException, NoProductStockException {
+		_metrics.<UnknownPartnerException, UnknownProductException, NoProductStockException>measure(Operation.REGISTER_BREAKDOWN_TRANSACTION, () -> {
+			checkJournal();
+
+			try {
+				if (runInShard(productKey, () -> { registerBreakdownTransaction(partnerKey, productKey, amount); return null; }))
+					return;
+			} catch (UnknownPartnerException | UnknownProductException | NoProductStockException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
 
-		// Check if partner and product are registered.
-		Partner partner = getPartner(partnerKey);
-		Product product = getProduct(productKey);
+			lockShared();
+			try {
+				// Check if partner and product are registered.
+				Partner partner = getPartner(partnerKey);
+				Product product = getProduct(productKey);
 
-		_warehouse.registerBreakdownSale(partner, product, amount);
+				// Breaking down a product adds stock to its components.
+				int[] stripes = lockStripes(getEntities(partner, product));
+				try {
+					int key = _warehouse.registerBreakdownSale(partner, product, amount);
+					if (key >= 0)
+						journal("BREAKDOWN", partnerKey, productKey, "" + amount, "" + key);
+					else
+						journal("BREAKDOWN", partnerKey, productKey, "" + amount);
+				} finally {
+					unlockStripes(stripes);
+				}
+			} finally {
+				unlockShared();
+			}
+			commit();
+		});
 	}
 
 	/**
@@ -338,7 +873,14 @@ public class WarehouseManager {
 	 * @throws UnknownTransactionException if there's no transaction with the given key.
 	 */
 	public Transaction getTransaction(int id) throws UnknownTransactionException {
-		return _warehouse.getTransaction(id);
+		return _metrics.measure(Operation.GET_TRANSACTION, () -> {
+			lockShared();
+			try {
+				return _warehouse.getTransaction(id);
+			} finally {
+				unlockShared();
+			}
+		});
 	}
 
 	/**
@@ -349,14 +891,40 @@ public class WarehouseManager {
 	 * @@throws MissingFileAssociationException if there's no file association.
 	 */
 	public void save() throws IOException, FileNotFoundException, MissingFileAssociationException {
-		if (_filename == null) {
-			throw new MissingFileAssociationException();
-		}
+		_metrics.<IOException, FileNotFoundException, MissingFileAssociationException>measure(Operation.SAVE, () -> {
+			lockExclusive();
+			try {
+				if (_filename == null || _filename.isEmpty()) {
+					throw new MissingFileAssociationException();
+				}
 
-		try (ObjectOutputStream objOut = new ObjectOutputStream(new FileOutputStream(_filename))) {
-			objOut.writeObject(_filename);
-			objOut.writeObject(_warehouse);
-		}
+				// Keep journaling to the file associated with the snapshot.
+				if (_journal != null && !_journal.getFilename().equals(getJournalFilename())) {
+					long sequence = _journal.getLastSequence();
+					_journal.close();
+					_journal = new Journal(getJournalFilename(), sequence);
+				}
+
+				long sequence = (_journal != null) ? _journal.getLastSequence() : 0;
+				String tmpFilename = _filename + ".tmp";
+
+				try (FileOutputStream fileOut = new FileOutputStream(tmpFilename)) {
+					new Snapshot(_filename, sequence, _warehouse).write(fileOut);
+					fileOut.getFD().sync();
+				}
+
+				// Replace the previous snapshot only when the new one is complete.
+				Files.move(Paths.get(tmpFilename), Paths.get(_filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				// Journaled changes up to now are part of the snapshot.
+				if (_journal != null)
+					_journal.truncate();
+				else
+					Files.deleteIfExists(Paths.get(getJournalFilename()));
+			} finally {
+				unlockExclusive();
+			}
+		});
 	}
 
 	/**
@@ -368,27 +936,674 @@ public class WarehouseManager {
 	 * @@throws FileNotFoundException
 	 */
 	public void saveAs(String filename) throws MissingFileAssociationException, FileNotFoundException, IOException {
-		_filename = filename;
-		save();
+		_metrics.<MissingFileAssociationException, FileNotFoundException, IOException>measure(Operation.SAVE_AS, () -> {
+			lockExclusive();
+			try {
+				_filename = filename;
+				save();
+			} finally {
+				unlockExclusive();
+			}
+		});
+	}
+
+	/**
+	 * Saves the warehouse with Java serialization to another file, in the format of
+	 * files saved before snapshots were introduced, which earlier versions can load.
+	 * The file is associated with itself, as those versions expect, and not with the
+	 * manager; loading it converts it into a snapshot.
+	 *
+	 * @@param filename the file name.
+	 * @@throws IOException if the file can't be written.
+	 */
+	public void saveSerialized(String filename) throws IOException {
+		_metrics.<IOException, RuntimeException, RuntimeException>measure(Operation.SAVE_SERIALIZED, () -> {
+			lockExclusive();
+			try {
+				// The whole history is saved.
+				_warehouse.loadArchivedTransactions();
+
+				try (ObjectOutputStream objOut = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+					objOut.writeObject(filename);
+					objOut.writeObject(_warehouse);
+				}
+
+				// Files saved with Java serialization had no journal.
+				Files.deleteIfExists(Paths.get(filename + ".journal"));
+			} finally {
+				unlockExclusive();
+			}
+		});
 	}
 
 	/**
 	 * Loads a previously saved binary file.
+	 * Files saved with Java serialization, before snapshots were introduced,
+	 * are first converted into snapshots, so that they are only migrated once.
+	 * With lazy loading, the transaction history is only read when first needed
+	 * (except in concurrent mode, where reading it on demand would change shared state).
 	 *
 	 * @@param filename the filename to load from.
 	 * @@throws UnavailableFileException if the file is not available.
 	 */
 	public void load(String filename) throws UnavailableFileException, ClassNotFoundException {
+		_metrics.<UnavailableFileException, ClassNotFoundException, RuntimeException>measure(Operation.LOAD, () -> {
+			lockExclusive();
+			try {
+				Warehouse previous = _warehouse;
+				long sequence;
+
+				try {
+					if (!Snapshot.isSnapshot(filename))
+						convertSerialized(filename);
+
+					Snapshot snapshot = Snapshot.read(filename);
+					_filename = snapshot.getFilename();
+					_warehouse = snapshot.getWarehouse();
+					sequence = snapshot.getSequence();
+
+					if (!_lazyLoading || isConcurrent())
+						_warehouse.loadArchivedTransactions();
+
+				} catch (IOException | UncheckedIOException e) {
+					throw new UnavailableFileException(filename);
+				}
+
+				// The previous warehouse's snapshot file is no longer read.
+				if (previous != _warehouse)
+					previous.closeArchive();
+
+				_warehouse.setClock(_clock);
+				if (_engine != null)
+					_engine.clear();
+
+				try {
+					recover(sequence);
+				} catch (IOException | MissingFileAssociationException e) {
+					throw new UnavailableFileException(filename);
+				}
+			} finally {
+				unlockExclusive();
+			}
+		});
+	}
+
+	/**
+	 * Replaces a file saved with Java serialization, before snapshots were introduced,
+	 * with a snapshot of the same warehouse.
+	 *
+	 * @param filename the file to convert.
+	 * @throws IOException if the file can't be read or replaced.
+	 * @throws ClassNotFoundException if the file holds unknown classes.
+	 */
+	private static void convertSerialized(String filename) throws IOException, ClassNotFoundException {
+		Snapshot snapshot;
+
 		try (ObjectInputStream objIn = new ObjectInputStream(new FileInputStream(filename))) {
-			_filename = (String) objIn.readObject();
-			_warehouse = (Warehouse) objIn.readObject();
-			_warehouse.updateDate();
+			String associatedFilename = (String) objIn.readObject();
+			Warehouse warehouse = (Warehouse) objIn.readObject();
+
+			// Serialized warehouses kept a batch per acquisition, and no journal.
+			warehouse.compactBatches();
+			snapshot = new Snapshot(associatedFilename, 0, warehouse);
+		}
+
+		String tmpFilename = filename + ".tmp";
+		try (FileOutputStream fileOut = new FileOutputStream(tmpFilename)) {
+			snapshot.write(fileOut);
+			fileOut.getFD().sync();
+		}
+
+		// Replace the serialized file only when the snapshot is complete.
+		Files.move(Paths.get(tmpFilename), Paths.get(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
 
+	/**
+	 * @return the name of the journal file of the associated file.
+	 */
+	private String getJournalFilename() {
+		return _filename + ".journal";
+	}
+
+	/**
+	 * @return true, if the transaction history of loaded files is read on demand; false, otherwise.
+	 */
+	public boolean isLazyLoading() {
+		return _lazyLoading;
+	}
+
+	/**
+	 * Sets whether the transaction history of loaded files is read on demand.
+	 *
+	 * @param lazyLoading true, to read the transaction history on demand; false, to read it when loading.
+	 */
+	public void setLazyLoading(boolean lazyLoading) {
+		_lazyLoading = lazyLoading;
+	}
+
+	/**
+	 * @return true, if the manager may be used by several threads at once; false, otherwise.
+	 */
+	public boolean isConcurrent() {
+		return _locks != null;
+	}
+
+	/**
+	 * Sets whether the manager may be used by several threads at once.
+	 * In concurrent mode, acquisitions, sales, breakdowns, payments and toggles only lock
+	 * the products and partners involved (including the components of aggregate products),
+	 * so that operations on unrelated products proceed in parallel; the remaining changes
+	 * lock the whole warehouse. Listings run alongside all of them, reading the concurrent
+	 * indexes of the warehouse. The mode must only be changed while no other thread uses the manager.
+	 *
+	 * @param concurrent true, to allow use by several threads; false, for use by a single thread.
+	 */
+	public void setConcurrent(boolean concurrent) {
+		if (concurrent == isConcurrent())
+			return;
+
+		if (concurrent) {
+			// Reading the transaction history on demand would change shared state.
+			_warehouse.loadArchivedTransactions();
+			_locks = new StripedLock(StripedLock.DEFAULT_STRIPES);
+		} else {
+			_locks = null;
+		}
+	}
+
+	/**
+	 * Checks the running totals of the warehouse against its contents: the accounting
+	 * balance against its unpaid sales, and the units in stock against the batches of
+	 * its products. Meant for testing only, since it visits everything with the whole
+	 * warehouse locked.
+	 *
+	 * @return true, if the totals agree with the contents; false, otherwise.
+	 */
+	public boolean isConsistent() {
+		lockExclusive();
+		try {
+			_warehouse.loadArchivedTransactions();
+			return _warehouse.isConsistent();
+		} finally {
+			unlockExclusive();
+		}
+	}
+
+	/**
+	 * @return the number of shards running the operations on products (0, if not sharded).
+	 */
+	public int getShards() {
+		return (_engine != null) ? _engine.getShards() : 0;
+	}
+
+	/**
+	 * Sets the number of shards running the operations on products.
+	 * In sharded mode, which implies concurrent mode, simple products are hash-partitioned
+	 * by key across the shards, and aggregate products go to the shard of their recipe.
+	 * Acquisitions, sales, breakdowns and toggles run in the thread of the product's shard,
+	 * so that each shard has a single writer; those of aggregate products whose recipe
+	 * spans several shards run in the calling thread, coordinated by the locks.
+	 * Warehouse-wide batch listings read the warehouse's index, as in concurrent mode.
+	 * The number of shards must only be changed while no other thread uses the manager.
+	 *
+	 * @param shards the number of shards (0, to run operations in the calling thread).
+	 */
+	public void setShards(int shards) {
+		if (shards == getShards())
+			return;
+
+		if (_engine != null) {
+			_engine.close();
+			_engine = null;
+		}
+
+		if (shards > 0) {
+			setConcurrent(true);
+			_engine = new ShardedEngine(shards);
+		}
+	}
+
+	/**
+	 * @return true, if changes are being journaled; false, otherwise.
+	 */
+	public boolean isJournaling() {
+		return _journal != null;
+	}
+
+	/**
+	 * Starts journaling every change to the warehouse.
+	 * Changes are appended to a journal file next to the associated file, and a new
+	 * snapshot is saved periodically. Loading the associated file replays the journal.
+	 *
+	 * @throws MissingFileAssociationException if there's no file association.
+	 * @throws IOException if the journal or the snapshot can't be written.
+	 */
+	public void enableJournal() throws MissingFileAssociationException, IOException {
+		_metrics.<MissingFileAssociationException, IOException, RuntimeException>measure(Operation.ENABLE_JOURNAL, () -> {
+			lockExclusive();
+			try {
+				if (_journal != null)
+					return;
+
+				if (_filename == null || _filename.isEmpty())
+					throw new MissingFileAssociationException();
+
+				_journal = new Journal(getJournalFilename(), 0);
+				save();
+			} finally {
+				unlockExclusive();
+			}
+		});
+	}
+
+	/**
+	 * Saves a last snapshot and stops journaling changes.
+	 *
+	 * @throws MissingFileAssociationException if there's no file association.
+	 * @throws IOException if the journal or the snapshot can't be written.
+	 */
+	public void disableJournal() throws MissingFileAssociationException, IOException {
+		_metrics.<MissingFileAssociationException, IOException, RuntimeException>measure(Operation.DISABLE_JOURNAL, () -> {
+			lockExclusive();
+			try {
+				if (_journal == null)
+					return;
+
+				_journal.close();
+				_journal = null;
+				save();
+			} finally {
+				unlockExclusive();
+			}
+		});
+	}
+
+	/**
+	 * Appends a change to the journal, if journaling is enabled.
+	 * Called while still holding the locks of the change, so that changes
+	 * to the same products and partners are journaled in the order they were made.
+	 *
+	 * @param fields the change description.
+	 */
+	private void journal(String... fields) {
+		if (_journal == null)
+			return;
+
+		try {
+			_journaled.get()[0] = _journal.append(fields);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Checks that the journal still forces its records to disk, before making a change,
+	 * so that a change isn't made when it can't be journaled.
+	 */
+	private void checkJournal() {
+		Journal journal = _journal;
+		if (journal == null)
+			return;
+
+		try {
+			journal.checkFailure();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Completes a change, after releasing its locks: waits until the change journaled
+	 * by the current thread is on disk (along with the changes of other threads) and,
+	 * when enough changes have been journaled, saves a new snapshot.
+	 * Changes run in a shard are waited for by the thread that handed them over.
+	 */
+	private void commit() {
+		long[] journaled = _journaled.get();
+		ShardedEngine engine = _engine;
+
+		if (journaled[0] > 0 && (engine == null || !engine.isShardThread())) {
+			awaitJournal(journaled[0]);
+			journaled[0] = 0;
+		}
+		checkpoint();
+	}
+
+	/**
+	 * Waits until a journaled change is on disk, if journaling is enabled.
+	 *
+	 * @param sequence the change's sequence number.
+	 */
+	private void awaitJournal(long sequence) {
+		Journal journal = _journal;
+		if (journal == null)
+			return;
+
+		try {
+			journal.awaitSync(sequence);
 		} catch (IOException e) {
-			throw new UnavailableFileException(filename);
+			throw new UncheckedIOException(e);
 		}
 	}
 
+	/**
+	 * Saves a new snapshot when enough changes have been journaled.
+	 * Called after releasing the locks of the change, since saving locks the whole warehouse.
+	 */
+	private void checkpoint() {
+		Journal journal = _journal;
+		if (journal == null || journal.size() < CHECKPOINT_INTERVAL)
+			return;
+
+		lockExclusive();
+		try {
+			if (_journal != null && _journal.size() >= CHECKPOINT_INTERVAL)
+				save();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (MissingFileAssociationException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			unlockExclusive();
+		}
+	}
+
+	/**
+	 * Acquires the lock over the whole warehouse, in concurrent mode.
+	 */
+	private void lockExclusive() {
+		if (_locks != null)
+			_locks.lockExclusive();
+	}
+
+	/**
+	 * Releases the lock over the whole warehouse, in concurrent mode.
+	 */
+	private void unlockExclusive() {
+		if (_locks != null)
+			_locks.unlockExclusive();
+	}
+
+	/**
+	 * Acquires the lock shared by changes to some products and partners only, in concurrent mode.
+	 */
+	private void lockShared() {
+		if (_locks != null)
+			_locks.lockShared();
+	}
+
+	/**
+	 * Releases the shared lock, in concurrent mode.
+	 */
+	private void unlockShared() {
+		if (_locks != null)
+			_locks.unlockShared();
+	}
+
+	/**
+	 * Locks the given products and partners, in concurrent mode.
+	 * The shared lock must be held.
+	 *
+	 * @param entities the products and partners involved in a change.
+	 * @return the stripes locked (null, if not in concurrent mode).
+	 */
+	private int[] lockStripes(Collection<?> entities) {
+		return (_locks != null) ? _locks.lock(entities) : null;
+	}
+
+	/**
+	 * Unlocks the stripes locked by {@link #lockStripes(Collection)}.
+	 *
+	 * @param stripes the stripes locked.
+	 */
+	private void unlockStripes(int[] stripes) {
+		if (stripes != null)
+			_locks.unlock(stripes);
+	}
+
+	/**
+	 * Collects the entities changed by selling or breaking down a product:
+	 * the partner, the product and, recursively, the components of its recipe.
+	 *
+	 * @param partner the partner.
+	 * @param product the product.
+	 * @return the partner and the products.
+	 */
+	private List<Object> getEntities(Partner partner, Product product) {
+		List<Object> entities = new ArrayList<>();
+
+		entities.add(partner);
+		entities.add(product);
+		if (product instanceof AggregateProduct)
+			entities.addAll(((AggregateProduct) product).getAllComponents());
+
+		return entities;
+	}
+
+	/**
+	 * In sharded mode, runs an operation on a product in the thread of the product's shard, and waits for it.
+	 * Operations run in the calling thread when not sharded, when already in a shard's thread,
+	 * when the whole warehouse is locked (while recovering, for instance), when the product
+	 * is unknown (for the operation to report it), and when the product's recipe spans several shards.
+	 *
+	 * @param productKey the key of the product.
+	 * @param operation  the operation, calling back the public method.
+	 * @return true, if the operation ran in a shard; false, if it must run in the calling thread.
+	 * @throws Exception the exception thrown by the operation.
+	 */
+	private boolean runInShard(String productKey, Callable<Void> operation) throws Exception {
+		ShardedEngine engine = _engine;
+		if (engine == null || engine.isShardThread() || _locks.isExclusiveHeld())
+			return false;
+
+		int shard;
+		lockShared();
+		try {
+			if (!_warehouse.isRegisteredProduct(productKey))
+				return false;
+			shard = engine.shardOf(_warehouse.getProduct(productKey));
+		} finally {
+			unlockShared();
+		}
+
+		if (shard == ShardedEngine.COORDINATED)
+			return false;
+
+		engine.execute(shard, _metrics.nested(operation));
+
+		// The shard's thread doesn't wait for the journal: its change is at most the last one.
+		Journal journal = _journal;
+		if (journal != null)
+			awaitJournal(journal.getLastSequence());
+		return true;
+	}
+
+	/**
+	 * Returns the partner with the given key, with its history read.
+	 *
+	 * @param key the partner key.
+	 * @return the partner.
+	 * @throws UnknownPartnerException if there's no partner with the given key.
+	 */
+	private Partner getHistory(String key) throws UnknownPartnerException {
+		lockShared();
+		try {
+			Partner partner = getPartner(key);
+			int[] stripes = lockStripes(Arrays.asList(partner));
+			try {
+				partner.loadHistory();
+				return partner;
+			} finally {
+				unlockStripes(stripes);
+			}
+		} finally {
+			unlockShared();
+		}
+	}
+
+	/**
+	 * Narrows a lazy stream to the items of a query.
+	 *
+	 * @param items  the items, in order.
+	 * @param offset the number of matching items to skip.
+	 * @param limit  the highest number of items to read.
+	 * @param filter the condition items must meet (null, for all items).
+	 * @return a lazy stream of the matching items, from the offset on.
+	 */
+	private static <T> Stream<T> query(Stream<T> items, int offset, int limit, Predicate<? super T> filter) {
+		if (offset < 0 || limit < 0)
+			throw new IllegalArgumentException("invalid query: offset " + offset + ", limit " + limit);
+
+		if (filter != null)
+			items = items.filter(filter);
+		return items.skip(offset).limit(limit);
+	}
+
+	/**
+	 * In concurrent mode, copies a collection that other threads may change after it is returned.
+	 *
+	 * @param collection the collection.
+	 * @return the collection, or a copy of it.
+	 */
+	private <T> Collection<T> snapshot(Collection<T> collection) {
+		return (_locks != null) ? new ArrayList<>(collection) : collection;
+	}
+
+	/**
+	 * Replays the journaled changes made after the loaded snapshot.
+	 * If the associated file has a journal, journaling goes on after recovery.
+	 *
+	 * @param sequence the sequence number of the last change in the snapshot.
+	 * @throws IOException if the journal can't be read or written.
+	 * @throws MissingFileAssociationException if there's no file association.
+	 */
+	private void recover(long sequence) throws IOException, MissingFileAssociationException, UnavailableFileException {
+		if (_journal != null) {
+			_journal.close();
+			_journal = null;
+		}
+
+		if (!Files.exists(Paths.get(getJournalFilename())))
+			return;
+
+		List<String[]> records = Journal.read(getJournalFilename(), sequence);
+		int nextTransactionId = _warehouse.getNextTransactionId();
+		for (String[] record: records) {
+			try {
+				replay(record);
+				nextTransactionId = Math.max(nextTransactionId, _warehouse.getNextTransactionId());
+			} catch (UnknownPartnerException | UnknownProductException | UnknownTransactionException |
+					DuplicatePartnerException | NoProductStockException | InvalidDateIncrementException |
+					RuntimeException e) {
+				throw new UnavailableFileException(_filename);
+			}
+		}
+
+		// Concurrent changes may have been journaled out of transaction order.
+		_warehouse.setNextTransactionId(nextTransactionId);
+
+		_journal = new Journal(getJournalFilename(), sequence + records.size());
+		save();
+	}
+
+	/**
+	 * Replays a journaled change.
+	 *
+	 * @param record the change description.
+	 */
+	private void replay(String[] record) throws UnknownPartnerException, UnknownProductException, UnknownTransactionException,
+			DuplicatePartnerException, NoProductStockException, InvalidDateIncrementException, UnavailableFileException {
+
+		switch (record[0]) {
+			case "DATE":
+				forwardDate(Integer.parseInt(record[1]));
+				break;
+
+			case "SIMPLE":
+				registerSimpleProduct(record[1]);
+				break;
+
+			case "AGGREGATE":
+				replayAggregateProduct(record);
+				break;
+
+			case "PARTNER":
+				registerPartner(record[1], record[2], record[3]);
+				break;
+
+			case "NOTIFICATIONS":
+				getPartnerNotifications(record[1]);
+				break;
+
+			case "TOGGLE":
+				toggleNotifications(record[1], record[2]);
+				break;
+
+			case "INBOX":
+				configureNotificationInbox(record[1], Integer.parseInt(record[2]), Boolean.parseBoolean(record[3]));
+				break;
+
+			case "ACQUISITION":
+				replayTransactionId(record, 5);
+				registerAcquisitionTransaction(record[1], record[2], Integer.parseInt(record[3]), Double.parseDouble(record[4]));
+				break;
+
+			case "SALE":
+				replayTransactionId(record, 5);
+				registerSaleTransaction(record[1], Integer.parseInt(record[2]), record[3], Integer.parseInt(record[4]));
+				break;
+
+			case "PAYMENT":
+				receivePayment(Integer.parseInt(record[1]));
+				break;
+
+			case "BREAKDOWN":
+				replayTransactionId(record, 4);
+				registerBreakdownTransaction(record[1], record[2], Integer.parseInt(record[3]));
+				break;
+
+			default:
+				throw new UnavailableFileException(_filename);
+		}
+	}
+
+	/**
+	 * Makes a replayed transaction get its journaled key.
+	 * Changes journaled before keys were recorded get the next key, as before.
+	 *
+	 * @param record the change description.
+	 * @param field  the position of the transaction key in the record.
+	 */
+	private void replayTransactionId(String[] record, int field) {
+		if (record.length > field)
+			_warehouse.setNextTransactionId(Integer.parseInt(record[field]));
+	}
+
+	/**
+	 * Replays the registration of an aggregate product.
+	 *
+	 * @param record the change description.
+	 */
+	private void replayAggregateProduct(String[] record) throws UnknownProductException {
+		int components = (record.length - 3) / 2;
+		List<String> productIds = new ArrayList<>();
+		List<Integer> quantities = new ArrayList<>();
+
+		for (int i = 0; i < components; i++) {
+			productIds.add(record[3 + i]);
+			quantities.add(Integer.parseInt(record[3 + components + i]));
+		}
+
+		registerAggregateProduct(record[1], Double.parseDouble(record[2]), productIds, quantities);
+	}
+
+	/**
+	 * @return the number of lines imported per second by the last import.
+	 */
+	public double getImportRate() {
+		return _importRate;
+	}
+
 	/**
 	 * Imports entities from a text file.
 	 *
@@ -396,11 +1611,22 @@ public class WarehouseManager {
 	 * @throws ImportFileException if there's an error while importing.
 	 */
 	public void importFile(String textfile) throws ImportFileException {
-		try {
-			_warehouse.importFile(textfile);
-		} catch (IOException | BadEntryException | UnknownPartnerException | DuplicatePartnerException | UnknownProductException e) {
-			throw new ImportFileException(textfile, e);
-		}
+		_metrics.measure(Operation.IMPORT_FILE, () -> {
+			lockExclusive();
+			try {
+				try {
+					_importRate = _warehouse.importFile(textfile);
+
+					// Imports aren't journaled: they go straight into a new snapshot.
+					if (_journal != null)
+						save();
+				} catch (IOException | BadEntryException | UnknownPartnerException | DuplicatePartnerException | UnknownProductException | MissingFileAssociationException e) {
+					throw new ImportFileException(textfile, e);
+				}
+			} finally {
+				unlockExclusive();
+			}
+		});
 	}
 
 }